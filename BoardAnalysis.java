@@ -0,0 +1,157 @@
+package pentos.g9;
+
+import pentos.sim.Cell;
+import pentos.sim.Land;
+
+import java.util.*;
+
+/* Derived per-game structures for a board state: distance from each empty cell
+   to the road network, and feasible anchor masks for building shapes. All arrays
+   are indexed by Grid index. Groups of empty cells are kept by FreeSpace instead.
+   An analysis is either built at the start of play() from the real Land, or built
+   speculatively in the background from the board we expect after our last move,
+   in which case its state must be checked against the Land before it is used.
+ */
+class BoardAnalysis {
+
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    public final BoardState state;
+    public final Grid grid;
+    public final Cell.Type[] types; // cell types of state, null outside of the board
+    public final boolean[] pond; // water cells that are part of a pond
+    public final boolean[] field; // park cells that are part of a field
+    public final int[] roadDist; // empty cells: steps to a road connection, else UNREACHABLE
+
+    private final Map<String, boolean[]> anchors; // footprint key -> feasible anchor mask
+
+    /* Snapshot the land and analyze it
+     */
+    public static BoardAnalysis of(Land land, Grid grid) {
+        return new BoardAnalysis(BoardState.of(land, grid), new Vector<Footprint>());
+    }
+
+    /* Analyze a board state, eagerly computing anchor masks for the given shapes
+     */
+    public BoardAnalysis(BoardState state, Collection<Footprint> shapes) {
+        this.state = state;
+        this.grid = state.grid;
+        this.types = state.types;
+        this.pond = state.pond;
+        this.field = state.field;
+        this.roadDist = new int[grid.size];
+        this.anchors = new HashMap<String, boolean[]>();
+
+        computeRoadDistances();
+        for (Footprint f : shapes) {
+            if (Thread.currentThread().isInterrupted()) {
+                return; // speculation was cancelled, result will be discarded
+            }
+            anchorMask(f);
+        }
+    }
+
+    public boolean isEmpty(int idx) {
+        return types[idx] == Cell.Type.EMPTY;
+    }
+
+    /* Returns if footprint f can be placed with its origin at (i, j), i.e. every
+       cell of it is on the board and empty
+     */
+    public boolean buildable(Footprint f, int i, int j) {
+        return anchorMask(f)[grid.index(i, j)];
+    }
+
+    /* Returns if the empty cell can reach the road network
+     */
+    public boolean reachesRoad(int idx) {
+        return roadDist[idx] != UNREACHABLE;
+    }
+
+    /* Returns if a buildable footprint placed at anchor could be connected to the
+       road network. Its cells all lie in one empty group, so one cell decides it.
+     */
+    public boolean reachesRoad(Footprint f, int anchor) {
+        return reachesRoad(anchor + f.offset[0]);
+    }
+
+    /* Computes the anchor masks of the given shapes up front; once it returns, the
+       analysis can be shared read-only between threads searching for those shapes
+     */
+    public void prepare(Footprint[] shapes) {
+        for (Footprint f : shapes) {
+            anchorMask(f);
+        }
+    }
+
+    /* Returns the feasible anchor mask of a footprint, computing it if it has not
+       been seen on this board yet
+     */
+    private boolean[] anchorMask(Footprint f) {
+        boolean[] mask = anchors.get(f.key);
+        if (mask != null) {
+            return mask;
+        }
+
+        mask = new boolean[grid.size];
+        for (int i = 0; i < grid.side; i++) {
+            for (int j = 0; j < grid.side; j++) {
+                if (!f.onBoard(grid, i, j)) {
+                    continue;
+                }
+                int anchor = grid.index(i, j);
+                boolean fits = true;
+                for (int off : f.offset) {
+                    if (!isEmpty(anchor + off)) {
+                        fits = false;
+                        break;
+                    }
+                }
+                mask[anchor] = fits;
+            }
+        }
+        anchors.put(f.key, mask);
+        return mask;
+    }
+
+    /* Multi-source BFS over empty cells. Empty cells on the perimeter or next to a
+       road have distance 0, every other empty cell the number of empty steps to
+       the nearest of those.
+     */
+    private void computeRoadDistances() {
+        int[] queue = new int[grid.size];
+        int head = 0;
+        int tail = 0;
+        for (int idx = 0; idx < grid.size; idx++) {
+            roadDist[idx] = UNREACHABLE;
+            if (isEmpty(idx) && touchesRoad(idx)) {
+                roadDist[idx] = 0;
+                queue[tail++] = idx;
+            }
+        }
+
+        while (head < tail) {
+            int curr = queue[head++];
+            for (int d = 0; d < 4; d++) {
+                int n = grid.neighbors[4*curr + d];
+                if (isEmpty(n) && roadDist[n] == UNREACHABLE) {
+                    roadDist[n] = roadDist[curr] + 1;
+                    queue[tail++] = n;
+                }
+            }
+        }
+    }
+
+    private boolean touchesRoad(int idx) {
+        if (grid.perimeter[idx]) {
+            return true;
+        }
+        for (int d = 0; d < 4; d++) {
+            if (types[grid.neighbors[4*idx + d]] == Cell.Type.ROAD) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+} // end BoardAnalysis
@@ -0,0 +1,108 @@
+package pentos.g9;
+
+import pentos.sim.Cell;
+import pentos.sim.Land;
+
+import java.util.*;
+
+/* Snapshot of a board: cell types and pond/field flags indexed by Grid index,
+   and the Zobrist hash of the cell types. States are never modified; after()
+   returns the state once more cells are built, updating the hash incrementally.
+ */
+final class BoardState {
+
+    public final Grid grid;
+    public final Cell.Type[] types; // cell types, null outside of the board
+    public final boolean[] pond; // water cells that are part of a pond
+    public final boolean[] field; // park cells that are part of a field
+    public final long hash; // Zobrist hash of types
+
+    public BoardState(Grid grid, Cell.Type[] types, boolean[] pond, boolean[] field,
+                      long hash) {
+        this.grid = grid;
+        this.types = types;
+        this.pond = pond;
+        this.field = field;
+        this.hash = hash;
+    }
+
+    /* Copies the cell types of the land
+     */
+    public static BoardState of(Land land, Grid grid) {
+        Cell.Type[] types = new Cell.Type[grid.size];
+        boolean[] pond = new boolean[grid.size];
+        boolean[] field = new boolean[grid.size];
+        for (int idx = 0; idx < grid.size; idx++) {
+            if (grid.onBoard[idx]) {
+                Cell c = grid.cells[idx];
+                types[idx] = land.getCellType(c.i, c.j);
+                pond[idx] = (types[idx] == Cell.Type.WATER) && land.isPond(c);
+                field[idx] = (types[idx] == Cell.Type.PARK) && land.isField(c);
+            }
+        }
+        return new BoardState(grid, types, pond, field, Zobrist.hash(grid, types));
+    }
+
+    /* Returns an empty board
+     */
+    public static BoardState empty(Grid grid) {
+        Cell.Type[] types = new Cell.Type[grid.size];
+        for (int idx = 0; idx < grid.size; idx++) {
+            if (grid.onBoard[idx]) {
+                types[idx] = Cell.Type.EMPTY;
+            }
+        }
+        return new BoardState(grid, types, new boolean[grid.size], new boolean[grid.size], 0);
+    }
+
+    /* Returns the state once the given building, road, water and park cells are
+       built. New water is expected to be part of a pond and new park part of a
+       field, like everything our player builds.
+     */
+    public BoardState after(Cell.Type buildingType, BitSet building, BitSet road,
+                            BitSet water, BitSet park) {
+        Cell.Type[] newTypes = types.clone();
+        boolean[] newPond = pond.clone();
+        boolean[] newField = field.clone();
+        long[] keys = Zobrist.keys(grid.size);
+        long newHash = hash;
+
+        BitSet[] built = {building, road, water, park};
+        Cell.Type[] builtTypes = {buildingType, Cell.Type.ROAD, Cell.Type.WATER, Cell.Type.PARK};
+        for (int k = 0; k < built.length; k++) {
+            for (int c = built[k].nextSetBit(0); c >= 0; c = built[k].nextSetBit(c+1)) {
+                newHash ^= Zobrist.key(keys, c, newTypes[c]) ^ Zobrist.key(keys, c, builtTypes[k]);
+                newTypes[c] = builtTypes[k];
+                newPond[c] = (builtTypes[k] == Cell.Type.WATER);
+                newField[c] = (builtTypes[k] == Cell.Type.PARK);
+            }
+        }
+        return new BoardState(grid, newTypes, newPond, newField, newHash);
+    }
+
+    /* Returns if the land is in exactly this state
+     */
+    public boolean matches(Land land) {
+        if (grid.side != land.side) {
+            return false;
+        }
+        for (int idx = 0; idx < grid.size; idx++) {
+            if (!grid.onBoard[idx]) {
+                continue;
+            }
+            Cell c = grid.cells[idx];
+            Cell.Type type = land.getCellType(c.i, c.j);
+            if (type != types[idx]) {
+                return false;
+            }
+            if (type == Cell.Type.WATER && land.isPond(c) != pond[idx]) {
+                return false;
+            }
+            if (type == Cell.Type.PARK && land.isField(c) != field[idx]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+} // end BoardState
@@ -0,0 +1,161 @@
+package pentos.g9;
+
+import pentos.sim.Cell;
+import pentos.sim.Building;
+
+import java.util.*;
+
+/* Cells of one building rotation relative to its origin, both as row/column
+   offsets and as index offsets on a Grid, together with the ring of cells
+   around it. The ring comes from the precomputed ShapeTables when the shape is
+   known, and is computed on the spot otherwise.
+ */
+final class Footprint {
+
+    public final int[] di;
+    public final int[] dj;
+    public final int[] offset;
+    public final int[] ring; // index offsets of the cells around the footprint
+    public final String key; // identifies the shape, equal footprints have equal keys
+
+    public Footprint(Building b, Grid grid, ShapeTables tables) {
+        this(cellsOf(b), grid, tables);
+    }
+
+    private Footprint(int[][] cells, Grid grid, ShapeTables tables) {
+        this(cells[0], cells[1], grid, tables);
+    }
+
+    public Footprint(int[] di, int[] dj, Grid grid, ShapeTables tables) {
+        this.di = di;
+        this.dj = dj;
+        this.key = ShapeTables.key(di, dj);
+        this.offset = new int[di.length];
+        for (int k = 0; k < di.length; k++) {
+            offset[k] = di[k] * grid.width + dj[k];
+        }
+
+        int[][] ringCells = tables.ring(key);
+        if (ringCells == null) {
+            ringCells = ShapeTables.computeRing(di, dj);
+        }
+        this.ring = new int[ringCells[0].length];
+        for (int k = 0; k < ring.length; k++) {
+            ring[k] = ringCells[0][k] * grid.width + ringCells[1][k];
+        }
+    }
+
+    private static int[][] cellsOf(Building b) {
+        int[][] cells = new int[2][b.size()];
+        int k = 0;
+        for (Cell c : b) {
+            cells[0][k] = c.i;
+            cells[1][k] = c.j;
+            k++;
+        }
+        return cells;
+    }
+
+    public int size() {
+        return offset.length;
+    }
+
+    /* Returns the smallest row offset of a cell
+     */
+    public int minRow() {
+        int output = Integer.MAX_VALUE;
+        for (int d : di) {
+            output = Math.min(output, d);
+        }
+        return output;
+    }
+
+    /* Returns the largest row offset of a cell
+     */
+    public int maxRow() {
+        int output = Integer.MIN_VALUE;
+        for (int d : di) {
+            output = Math.max(output, d);
+        }
+        return output;
+    }
+
+    /* Returns the smallest column offset of a cell
+     */
+    public int minCol() {
+        int output = Integer.MAX_VALUE;
+        for (int d : dj) {
+            output = Math.min(output, d);
+        }
+        return output;
+    }
+
+    /* Returns the largest column offset of a cell
+     */
+    public int maxCol() {
+        int output = Integer.MIN_VALUE;
+        for (int d : dj) {
+            output = Math.max(output, d);
+        }
+        return output;
+    }
+
+    /* Returns the length of the longest straight run of cells along a row, or along
+       a column if vertical; the building needs an empty run at least this long
+     */
+    public int longestRun(boolean vertical) {
+        int output = 0;
+        for (int k = 0; k < di.length; k++) {
+            int length = 1;
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                for (int m = 0; m < di.length; m++) {
+                    if ((vertical && dj[m] == dj[k] && di[m] == di[k] + length) ||
+                        (!vertical && di[m] == di[k] && dj[m] == dj[k] + length)) {
+                        length++;
+                        grew = true;
+                    }
+                }
+            }
+            output = Math.max(output, length);
+        }
+        return output;
+    }
+
+    /* Returns if every cell lies on the board with the origin at (i, j)
+     */
+    public boolean onBoard(Grid grid, int i, int j) {
+        for (int k = 0; k < di.length; k++) {
+            int ci = di[k] + i;
+            int cj = dj[k] + j;
+            if (ci < 0 || cj < 0 || ci >= grid.side || cj >= grid.side) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Returns the absolute indices of the cells with the origin at anchor; the
+       footprint must lie on the board there
+     */
+    public BitSet cells(int anchor) {
+        BitSet output = new BitSet();
+        for (int off : offset) {
+            output.set(anchor + off);
+        }
+        return output;
+    }
+
+    /* Returns the absolute indices of the cells around the footprint with the
+       origin at anchor; these lie at most one cell outside of the board
+     */
+    public BitSet ring(int anchor) {
+        BitSet output = new BitSet();
+        for (int off : ring) {
+            output.set(anchor + off);
+        }
+        return output;
+    }
+
+} // end Footprint
@@ -0,0 +1,186 @@
+package pentos.g9;
+
+import pentos.sim.Cell;
+
+import java.util.*;
+
+/* Where buildings can still go: the groups of connected empty cells with their
+   sizes and whether they have a road connection, and per row and column the
+   longest run of empty cells. mayFit() uses them to rule out a request before
+   the board is searched for it. Cells are only ever built on, never cleared, so
+   after() only relabels the groups that lost cells to a move and rescans the
+   rows and columns the move touched.
+ */
+final class FreeSpace {
+
+    public final BoardState state; // board the structures describe
+    public final int[] group; // empty cells: id of the connected empty group, else -1
+    public final int[] groupSize; // per group id: number of cells, 0 once it lost cells
+    public final boolean[] groupConnected; // per group id: some cell has a road connection
+    public final int numGroups; // number of group ids handed out
+    public final int[] rowRun; // per row: longest run of empty cells
+    public final int[] colRun; // per column: longest run of empty cells
+    public final int largestConnected; // cells in the largest group with a road connection
+
+    private FreeSpace(BoardState state, int[] group, int[] groupSize,
+                      boolean[] groupConnected, int numGroups, int[] rowRun, int[] colRun) {
+        this.state = state;
+        this.group = group;
+        this.groupSize = groupSize;
+        this.groupConnected = groupConnected;
+        this.numGroups = numGroups;
+        this.rowRun = rowRun;
+        this.colRun = colRun;
+
+        int largest = 0;
+        for (int g = 0; g < numGroups; g++) {
+            if (groupConnected[g]) {
+                largest = Math.max(largest, groupSize[g]);
+            }
+        }
+        this.largestConnected = largest;
+    }
+
+    /* Computes the structures of a whole board
+     */
+    public static FreeSpace of(BoardState state) {
+        Grid grid = state.grid;
+        int[] group = new int[grid.size];
+        Arrays.fill(group, -1);
+        int[] groupSize = new int[16];
+        boolean[] groupConnected = new boolean[16];
+        int numGroups = 0;
+
+        int[] stack = new int[grid.size];
+        for (int idx = 0; idx < grid.size; idx++) {
+            if (state.types[idx] != Cell.Type.EMPTY || group[idx] != -1) {
+                continue;
+            }
+            if (numGroups == groupSize.length) {
+                groupSize = Arrays.copyOf(groupSize, 2 * numGroups);
+                groupConnected = Arrays.copyOf(groupConnected, 2 * numGroups);
+            }
+            label(state, group, groupSize, groupConnected, numGroups, idx, stack);
+            numGroups++;
+        }
+
+        int[] rowRun = new int[grid.side];
+        int[] colRun = new int[grid.side];
+        for (int k = 0; k < grid.side; k++) {
+            rowRun[k] = run(state, k, false);
+            colRun[k] = run(state, k, true);
+        }
+        return new FreeSpace(state, group, groupSize, groupConnected, numGroups, rowRun, colRun);
+    }
+
+    /* Returns the structures of the next board, which only differs from this one
+       in the given built cells, all of which were empty here
+     */
+    public FreeSpace after(BoardState next, BitSet built) {
+        Grid grid = next.grid;
+        int[] newGroup = group.clone();
+        // every piece a group is split into borders a built cell, so at most four
+        // new groups per built cell
+        int capacity = numGroups + 4 * built.cardinality();
+        int[] newGroupSize = Arrays.copyOf(groupSize, capacity);
+        boolean[] newGroupConnected = Arrays.copyOf(groupConnected, capacity);
+        int newNumGroups = numGroups;
+
+        // groups that lost cells are gone, their remaining cells get relabeled
+        for (int c = built.nextSetBit(0); c >= 0; c = built.nextSetBit(c+1)) {
+            if (newGroup[c] != -1) {
+                newGroupSize[newGroup[c]] = 0;
+                newGroupConnected[newGroup[c]] = false;
+                newGroup[c] = -1;
+            }
+        }
+        int[] stack = new int[grid.size];
+        for (int c = built.nextSetBit(0); c >= 0; c = built.nextSetBit(c+1)) {
+            for (int d = 0; d < 4; d++) {
+                int n = grid.neighbors[4*c + d];
+                if (next.types[n] == Cell.Type.EMPTY && newGroup[n] < numGroups &&
+                    newGroupSize[newGroup[n]] == 0) {
+                    label(next, newGroup, newGroupSize, newGroupConnected, newNumGroups,
+                          n, stack);
+                    newNumGroups++;
+                }
+            }
+        }
+
+        int[] newRowRun = rowRun.clone();
+        int[] newColRun = colRun.clone();
+        for (int c = built.nextSetBit(0); c >= 0; c = built.nextSetBit(c+1)) {
+            newRowRun[grid.row[c]] = run(next, grid.row[c], false);
+            newColRun[grid.col[c]] = run(next, grid.col[c], true);
+        }
+        return new FreeSpace(next, newGroup, newGroupSize, newGroupConnected, newNumGroups,
+                             newRowRun, newColRun);
+    }
+
+    /* Returns if a request with the given rotations may fit on the board. If not,
+       no rotation fits anywhere with a road connection: none is small enough for
+       the largest group with a road connection, or has its longest row and column
+       runs of cells fit into empty runs of the board.
+     */
+    public boolean mayFit(Footprint[] rotations) {
+        int longestRowRun = 0;
+        int longestColRun = 0;
+        for (int k = 0; k < rowRun.length; k++) {
+            longestRowRun = Math.max(longestRowRun, rowRun[k]);
+            longestColRun = Math.max(longestColRun, colRun[k]);
+        }
+
+        for (Footprint f : rotations) {
+            if (f.size() <= largestConnected && f.longestRun(false) <= longestRowRun &&
+                f.longestRun(true) <= longestColRun) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Labels the group of connected empty cells containing an empty cell with the
+       given id using DFS, recording its size and whether it has a road connection
+     */
+    private static void label(BoardState state, int[] group, int[] groupSize,
+                              boolean[] groupConnected, int id, int idx, int[] stack) {
+        Grid grid = state.grid;
+        int size = 0;
+        boolean connected = false;
+        int top = 0;
+        group[idx] = id;
+        stack[top++] = idx;
+        while (top > 0) {
+            int curr = stack[--top];
+            size++;
+            connected |= grid.perimeter[curr];
+            for (int d = 0; d < 4; d++) {
+                int n = grid.neighbors[4*curr + d];
+                if (state.types[n] == Cell.Type.ROAD) {
+                    connected = true;
+                }
+                else if (state.types[n] == Cell.Type.EMPTY && group[n] != id) {
+                    group[n] = id;
+                    stack[top++] = n;
+                }
+            }
+        }
+        groupSize[id] = size;
+        groupConnected[id] = connected;
+    }
+
+    /* Returns the longest run of empty cells in a row, or in a column if vertical
+     */
+    private static int run(BoardState state, int k, boolean vertical) {
+        Grid grid = state.grid;
+        int output = 0;
+        int length = 0;
+        for (int m = 0; m < grid.side; m++) {
+            int idx = vertical ? grid.index(m, k) : grid.index(k, m);
+            length = (state.types[idx] == Cell.Type.EMPTY) ? length + 1 : 0;
+            output = Math.max(output, length);
+        }
+        return output;
+    }
+
+} // end FreeSpace
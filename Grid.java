@@ -0,0 +1,121 @@
+package pentos.g9;
+
+import pentos.sim.Cell;
+
+import java.util.*;
+
+/* Index space for the cells of a board. Cells are numbered row-major over the
+   board padded with a one-cell border, so every neighbor of a cell on the board
+   has an index of its own; border indices stand for the out-of-bounds cells that
+   Cell.neighbors() reports around the edge of the board.
+   Neighbor, row/column and perimeter tables are static and shared by every board
+   of the same side; the canonical Cell objects are per board, so that internal code
+   can work on indices and only touch Cell objects when talking to pentos.sim.
+ */
+final class Grid {
+
+    public static final int NONE = -1; // neighbor of a border cell that lies beyond the border
+
+    /* Index tables for one board side
+     */
+    private static class Tables {
+        int side;
+        int[] neighbors; // 4 per index: north, east, south, west
+        int[] row;
+        int[] col;
+        boolean[] onBoard;
+        boolean[] perimeter;
+    }
+
+    private static Tables tables; // shared tables, rebuilt only for a board of a different side
+
+    public final int side; // cells per row of the board
+    public final int width; // cells per row of the padded board
+    public final int size; // number of indices
+    public final int[] neighbors;
+    public final int[] row;
+    public final int[] col;
+    public final boolean[] onBoard;
+    public final boolean[] perimeter; // on the perimeter of the board, or outside it
+    public final Cell[] cells; // canonical Cell for every index
+
+    public Grid(int side) {
+        this.side = side;
+        this.width = side + 2;
+        this.size = width * width;
+        Tables t = tablesFor(side);
+        this.neighbors = t.neighbors;
+        this.row = t.row;
+        this.col = t.col;
+        this.onBoard = t.onBoard;
+        this.perimeter = t.perimeter;
+
+        this.cells = new Cell[size];
+        for (int idx = 0; idx < size; idx++) {
+            cells[idx] = new Cell(row[idx], col[idx]);
+        }
+    }
+
+    private static synchronized Tables tablesFor(int side) {
+        if (tables != null && tables.side == side) {
+            return tables;
+        }
+        int width = side + 2;
+        int size = width * width;
+        Tables t = new Tables();
+        t.side = side;
+        t.neighbors = new int[4 * size];
+        t.row = new int[size];
+        t.col = new int[size];
+        t.onBoard = new boolean[size];
+        t.perimeter = new boolean[size];
+
+        for (int idx = 0; idx < size; idx++) {
+            int i = idx / width - 1;
+            int j = idx % width - 1;
+            t.row[idx] = i;
+            t.col[idx] = j;
+            t.onBoard[idx] = i >= 0 && j >= 0 && i < side && j < side;
+            t.perimeter[idx] = i <= 0 || j <= 0 || i >= side-1 || j >= side-1;
+            t.neighbors[4*idx] = (i > -1) ? idx - width : NONE;
+            t.neighbors[4*idx + 1] = (j < side) ? idx + 1 : NONE;
+            t.neighbors[4*idx + 2] = (i < side) ? idx + width : NONE;
+            t.neighbors[4*idx + 3] = (j > -1) ? idx - 1 : NONE;
+        }
+
+        tables = t;
+        return t;
+    }
+
+    /* Returns the index of the cell at (i, j), which may be at most one cell
+       outside of the board
+     */
+    public int index(int i, int j) {
+        return (i + 1) * width + (j + 1);
+    }
+
+    public int index(Cell c) {
+        return index(c.i, c.j);
+    }
+
+    /* Returns the canonical cells of a set of indices
+     */
+    public Set<Cell> toCells(BitSet indices) {
+        Set<Cell> output = new HashSet<Cell>();
+        for (int idx = indices.nextSetBit(0); idx >= 0; idx = indices.nextSetBit(idx+1)) {
+            output.add(cells[idx]);
+        }
+        return output;
+    }
+
+    /* Returns the indices of a set of cells
+     */
+    public BitSet toIndices(Set<Cell> cellSet) {
+        BitSet output = new BitSet(size);
+        for (Cell c : cellSet) {
+            output.set(index(c));
+        }
+        return output;
+    }
+
+} // end Grid
@@ -0,0 +1,218 @@
+package pentos.g9;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/* Opening book mapping (Zobrist hash of the land, request shape) to a precomputed
+   move, generated offline by OpeningBookGenerator. The book file is memory-mapped
+   read-only, so concurrent game processes share one copy of it in the page cache,
+   and lookups only use absolute reads, so one book can be shared between threads.
+
+   File format (big-endian):
+     int MAGIC, int VERSION, int side, int depth, int #entries
+     #entries x (long board hash, long shape id, int payload offset), sorted by
+                (board hash, shape id)
+     payloads: per move, the building, road, water and park cells, each as
+               short #cells, #cells x (byte i, byte j)
+ */
+final class OpeningBook {
+
+    public static final int MAGIC = 0x47394f42; // "G9OB"
+    public static final int VERSION = 1;
+    private static final int HEADER_BYTES = 20;
+    private static final int ENTRY_BYTES = 20;
+
+    public final int side; // board side the book was generated for
+    public final int depth; // number of moves from the empty board the book covers
+    private final int numEntries;
+    private final ByteBuffer buffer;
+
+    private OpeningBook(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES ||
+            buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("not a g9 opening book of version " + VERSION);
+        }
+        this.side = buffer.getInt(8);
+        this.depth = buffer.getInt(12);
+        this.numEntries = buffer.getInt(16);
+        if (numEntries < 0 ||
+            HEADER_BYTES + (long) numEntries * ENTRY_BYTES > buffer.capacity()) {
+            throw new IOException("truncated g9 opening book");
+        }
+    }
+
+    /* Maps the book at the given path, or returns null if there is no usable book
+     */
+    public static OpeningBook open(String path) {
+        Path file = Paths.get(path);
+        if (!Files.isReadable(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new OpeningBook(buffer);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /* Returns an id for a request shape, the same for every rotation of it: the
+       smallest key among its rotations, each shifted to start at row/column 0
+     */
+    public static long shapeId(boolean residence, Footprint[] rotations) {
+        String smallest = null;
+        for (Footprint f : rotations) {
+            int minI = Integer.MAX_VALUE;
+            int minJ = Integer.MAX_VALUE;
+            for (int k = 0; k < f.size(); k++) {
+                minI = Math.min(minI, f.di[k]);
+                minJ = Math.min(minJ, f.dj[k]);
+            }
+            int[] di = new int[f.size()];
+            int[] dj = new int[f.size()];
+            for (int k = 0; k < f.size(); k++) {
+                di[k] = f.di[k] - minI;
+                dj[k] = f.dj[k] - minJ;
+            }
+            String key = ShapeTables.key(di, dj);
+            if (smallest == null || key.compareTo(smallest) < 0) {
+                smallest = key;
+            }
+        }
+        return Zobrist.hashString((residence ? "R" : "F") + smallest);
+    }
+
+    /* Returns the booked move for a board and request shape as the indices of its
+       {building, road, water, park} cells on the grid, or null if there is none or
+       its payload is damaged
+     */
+    public int[][] lookup(long boardHash, long shapeId, Grid grid) {
+        if (grid.side != side) {
+            return null;
+        }
+
+        // binary search the sorted entries
+        int lo = 0;
+        int hi = numEntries - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = HEADER_BYTES + mid * ENTRY_BYTES;
+            int cmp = Long.compare(buffer.getLong(entry), boardHash);
+            if (cmp == 0) {
+                cmp = Long.compare(buffer.getLong(entry + 8), shapeId);
+            }
+            if (cmp < 0) {
+                lo = mid + 1;
+            }
+            else if (cmp > 0) {
+                hi = mid - 1;
+            }
+            else {
+                return readMove(buffer.getInt(entry + 16), grid);
+            }
+        }
+        return null;
+    }
+
+    /* Reads the payload at the given offset, or returns null if it lies outside
+       the payload area or has cells off the board
+     */
+    private int[][] readMove(int pos, Grid grid) {
+        int limit = buffer.capacity();
+        if (pos < HEADER_BYTES + numEntries * ENTRY_BYTES) {
+            return null;
+        }
+        int[][] move = new int[4][];
+        for (int part = 0; part < 4; part++) {
+            if (pos > limit - 2) {
+                return null;
+            }
+            int n = buffer.getShort(pos);
+            pos += 2;
+            if (n < 0 || n > (limit - pos) / 2) {
+                return null;
+            }
+            move[part] = new int[n];
+            for (int k = 0; k < n; k++) {
+                int i = buffer.get(pos);
+                int j = buffer.get(pos + 1);
+                if (i < 0 || i >= side || j < 0 || j >= side) {
+                    return null;
+                }
+                move[part][k] = grid.index(i, j);
+                pos += 2;
+            }
+        }
+        return move;
+    }
+
+    /* Book entry under construction
+     */
+    static class Entry implements Comparable<Entry> {
+        public long boardHash;
+        public long shapeId;
+        public int[][] move; // {building, road, water, park} as grid indices
+
+        public Entry(long boardHash, long shapeId, int[][] move) {
+            this.boardHash = boardHash;
+            this.shapeId = shapeId;
+            this.move = move;
+        }
+
+        public int compareTo(Entry e) {
+            int cmp = Long.compare(boardHash, e.boardHash);
+            return (cmp != 0) ? cmp : Long.compare(shapeId, e.shapeId);
+        }
+    }
+
+    /* Writes a book file from the given entries; for duplicate keys the first
+       entry wins
+     */
+    public static void write(OutputStream output, Grid grid, int depth,
+                             List<Entry> entries) throws IOException {
+        Vector<Entry> sorted = new Vector<Entry>();
+        Vector<Entry> all = new Vector<Entry>(entries);
+        Collections.sort(all);
+        for (Entry e : all) {
+            if (sorted.isEmpty() || sorted.lastElement().compareTo(e) != 0) {
+                sorted.add(e);
+            }
+        }
+
+        ByteArrayOutputStream payloads = new ByteArrayOutputStream();
+        DataOutputStream payloadOut = new DataOutputStream(payloads);
+        int[] offsets = new int[sorted.size()];
+        int payloadStart = HEADER_BYTES + sorted.size() * ENTRY_BYTES;
+        for (int e = 0; e < sorted.size(); e++) {
+            offsets[e] = payloadStart + payloadOut.size();
+            for (int[] part : sorted.get(e).move) {
+                payloadOut.writeShort(part.length);
+                for (int idx : part) {
+                    payloadOut.writeByte(grid.row[idx]);
+                    payloadOut.writeByte(grid.col[idx]);
+                }
+            }
+        }
+        payloadOut.flush();
+
+        DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(grid.side);
+        out.writeInt(depth);
+        out.writeInt(sorted.size());
+        for (int e = 0; e < sorted.size(); e++) {
+            out.writeLong(sorted.get(e).boardHash);
+            out.writeLong(sorted.get(e).shapeId);
+            out.writeInt(offsets[e]);
+        }
+        payloads.writeTo(out);
+        out.flush();
+    }
+
+} // end OpeningBook
@@ -0,0 +1,266 @@
+package pentos.g9;
+
+import pentos.sim.Cell;
+import pentos.sim.Building;
+
+import java.io.*;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/* Offline build step: generates the opening book read by Player. Starting from
+   the empty land, for every position up to the given depth and every possible
+   request shape, searches the board for the best move, looking one request ahead
+   for the top candidates, and records it under (board hash, shape id). The search
+   covers the same rows in the same order as in play(), so booked residences grow
+   from the top and booked factories from the bottom. The positions of the next
+   level are the distinct boards reached by those moves.
+   Positions are searched in parallel, but their results are collected in order,
+   so the same arguments always produce the same book.
+
+     java pentos.g9.OpeningBookGenerator [output file, default opening.book]
+                                         [depth, default 2] [lookahead, default 4]
+
+   The lookahead is the number of top candidates rescored by the average best
+   move over all request shapes on the board that follows them; 0 disables it.
+ */
+public class OpeningBookGenerator {
+
+    private static final int SIDE = 50;
+
+    /* Position reached from the empty board
+     */
+    private static class Node {
+        public BoardState state;
+        public int residenceFront; // deepest anchor row of the residences placed
+
+        public Node(BoardState state, int residenceFront) {
+            this.state = state;
+            this.residenceFront = residenceFront;
+        }
+    }
+
+    /* A possible request: its type and all of its rotations
+     */
+    private static class Shape {
+        public Building.Type type;
+        public int[][][] rotations; // per rotation: {di[], dj[]}
+
+        public Shape(Building.Type type, int[][][] rotations) {
+            this.type = type;
+            this.rotations = rotations;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String path = (args.length > 0) ? args[0] : "opening.book";
+        int depth = (args.length > 1) ? Integer.parseInt(args[1]) : 2;
+        int lookahead = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+
+        ShapeTables tables = ShapeTables.load();
+        Grid grid = new Grid(SIDE);
+        List<Shape> shapes = requestShapes(tables);
+
+        List<OpeningBook.Entry> entries = new Vector<OpeningBook.Entry>();
+        List<Node> level = new Vector<Node>();
+        level.add(new Node(BoardState.empty(grid), 0));
+        for (int d = 0; d < depth; d++) {
+            List<Node> positions = level;
+
+            // per position, the best move for each shape, in the order of positions
+            List<Player.Candidate[]> results = positions.parallelStream()
+                .map(node -> bestMoves(node, shapes, grid, lookahead, tables))
+                .collect(Collectors.toList());
+
+            // positions reached by more than one move order are expanded once; the
+            // same buildings on the same cells also give the same residence front
+            Map<Long, Node> next = new LinkedHashMap<Long, Node>();
+            for (int p = 0; p < positions.size(); p++) {
+                Node node = positions.get(p);
+                for (int k = 0; k < shapes.size(); k++) {
+                    Shape shape = shapes.get(k);
+                    Player.Candidate best = results.get(p)[k];
+                    if (best == null) {
+                        continue;
+                    }
+                    Footprint[] footprints = footprints(shape, grid, tables);
+                    long shapeId = OpeningBook.shapeId(shape.type == Building.Type.RESIDENCE,
+                                                       footprints);
+                    int[][] move = {indices(best.building), indices(best.road),
+                                    indices(best.water), indices(best.park)};
+                    entries.add(new OpeningBook.Entry(node.state.hash, shapeId, move));
+                    Node child = child(node, best);
+                    next.putIfAbsent(child.state.hash, child);
+                }
+            }
+            System.out.println("depth " + d + ": " + positions.size() + " positions, "
+                               + entries.size() + " entries");
+            level = new Vector<Node>(next.values());
+        }
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path))) {
+            OpeningBook.write(out, grid, depth, entries);
+        }
+        System.out.println("wrote " + entries.size() + " entries to " + path);
+    }
+
+    /* Returns the best move in a position for each request shape, null for the
+       shapes that don't fit
+     */
+    private static Player.Candidate[] bestMoves(Node node, List<Shape> shapes, Grid grid,
+                                                int lookahead, ShapeTables tables) {
+        Player.Candidate[] output = new Player.Candidate[shapes.size()];
+        for (int k = 0; k < shapes.size(); k++) {
+            Footprint[] footprints = footprints(shapes.get(k), grid, tables);
+            output[k] = bestMove(new Player(), node, shapes.get(k), footprints, shapes,
+                                 lookahead, tables);
+        }
+        return output;
+    }
+
+    /* Returns the best move for a request shape in a position: the highest scoring
+       one of the search play() does, or with lookahead, the one of the top candidates
+       with the highest score plus average best score of the following request; ties
+       go to the higher scoring candidate
+     */
+    private static Player.Candidate bestMove(Player player, Node node, Shape shape,
+                                             Footprint[] footprints, List<Shape> shapes,
+                                             int lookahead, ShapeTables tables) {
+        Vector<Player.ScoredMove> moves = player.searchOffline(node.state, node.residenceFront,
+                                                               shape.type, footprints);
+        if (moves.isEmpty()) {
+            return null;
+        }
+        Collections.sort(moves);
+        if (lookahead <= 0) {
+            return moves.lastElement().move;
+        }
+
+        Player.Candidate best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < lookahead && k < moves.size(); k++) {
+            Player.ScoredMove m = moves.get(moves.size() - 1 - k);
+            Node child = child(node, m.move);
+            double total = 0;
+            for (Shape s : shapes) {
+                Vector<Player.ScoredMove> replies =
+                    new Player().searchOffline(child.state, child.residenceFront, s.type,
+                                               footprints(s, child.state.grid, tables));
+                if (!replies.isEmpty()) {
+                    total += Collections.max(replies).score;
+                }
+            }
+            double score = m.score + total / shapes.size();
+            if (score > bestScore) {
+                bestScore = score;
+                best = m.move;
+            }
+        }
+        return best;
+    }
+
+    /* Returns the position reached by a move, with the residence front updated the
+       way Skyline.after() does it
+     */
+    private static Node child(Node node, Player.Candidate move) {
+        Cell.Type type = (move.type == Building.Type.RESIDENCE) ? Cell.Type.RESIDENCE :
+            Cell.Type.FACTORY;
+        BoardState state = node.state.after(type, move.building, move.road, move.water,
+                                            move.park);
+        int residenceFront = node.residenceFront;
+        if (move.type == Building.Type.RESIDENCE) {
+            residenceFront = Math.min(Math.max(residenceFront, state.grid.row[move.anchor]),
+                                      state.grid.side-1);
+        }
+        return new Node(state, residenceFront);
+    }
+
+    /* Returns every request the simulator can make: the pentomino residences up to
+       rotation, and the factory rectangles up to 5x5
+     */
+    private static List<Shape> requestShapes(ShapeTables tables) {
+        List<Shape> shapes = new Vector<Shape>();
+        Set<String> seen = new HashSet<String>();
+        for (int[][] cells : tables.shapes) {
+            if (cells[0].length == 5) {
+                addShape(shapes, seen, Building.Type.RESIDENCE, cells);
+            }
+            if (isRectangle(cells)) {
+                addShape(shapes, seen, Building.Type.FACTORY, cells);
+            }
+        }
+        return shapes;
+    }
+
+    private static void addShape(List<Shape> shapes, Set<String> seen, Building.Type type,
+                                 int[][] cells) {
+        int[][][] rotations = rotations(cells, type == Building.Type.FACTORY);
+        String smallest = null;
+        for (int[][] r : rotations) {
+            String key = ShapeTables.key(r[0], r[1]);
+            if (smallest == null || key.compareTo(smallest) < 0) {
+                smallest = key;
+            }
+        }
+        if (seen.add(type + smallest)) {
+            shapes.add(new Shape(type, rotations));
+        }
+    }
+
+    private static boolean isRectangle(int[][] cells) {
+        int h = 0;
+        int w = 0;
+        for (int k = 0; k < cells[0].length; k++) {
+            h = Math.max(h, cells[0][k] + 1);
+            w = Math.max(w, cells[1][k] + 1);
+        }
+        return h * w == cells[0].length;
+    }
+
+    /* Returns the distinct rotations of a shape, each starting at row/column 0;
+       factories come in two orientations, residences in up to four
+     */
+    private static int[][][] rotations(int[][] cells, boolean factory) {
+        List<int[][]> output = new Vector<int[][]>();
+        Set<String> seen = new HashSet<String>();
+        int[][] r = cells;
+        for (int k = 0; k < (factory ? 2 : 4); k++) {
+            int minI = Integer.MAX_VALUE;
+            int minJ = Integer.MAX_VALUE;
+            for (int c = 0; c < r[0].length; c++) {
+                minI = Math.min(minI, r[0][c]);
+                minJ = Math.min(minJ, r[1][c]);
+            }
+            int[][] shifted = new int[2][r[0].length];
+            for (int c = 0; c < r[0].length; c++) {
+                shifted[0][c] = r[0][c] - minI;
+                shifted[1][c] = r[1][c] - minJ;
+            }
+            if (seen.add(ShapeTables.key(shifted[0], shifted[1]))) {
+                output.add(shifted);
+            }
+
+            // rotate by 90 degrees: (i, j) -> (j, -i)
+            int[][] rotated = new int[2][r[0].length];
+            for (int c = 0; c < r[0].length; c++) {
+                rotated[0][c] = r[1][c];
+                rotated[1][c] = -r[0][c];
+            }
+            r = rotated;
+        }
+        return output.toArray(new int[0][][]);
+    }
+
+    private static Footprint[] footprints(Shape shape, Grid grid, ShapeTables tables) {
+        Footprint[] footprints = new Footprint[shape.rotations.length];
+        for (int r = 0; r < footprints.length; r++) {
+            footprints[r] = new Footprint(shape.rotations[r][0], shape.rotations[r][1],
+                                          grid, tables);
+        }
+        return footprints;
+    }
+
+    private static int[] indices(BitSet cells) {
+        return cells.stream().toArray();
+    }
+
+} // end OpeningBookGenerator
@@ -0,0 +1,165 @@
+package pentos.g9;
+
+import pentos.sim.Cell;
+
+import java.util.*;
+
+/* Scratch copy of the cell types of a board, used to evaluate hypothetical moves.
+   Cells of a move are applied on top of the board, the overlaid board is queried
+   like the real one, and everything applied since a mark is rolled back from an
+   undo log in time proportional to the number of cells changed. Not thread-safe;
+   each player owns its overlay.
+   When a padded row fits in 64 bits the overlay also keeps one bitmap word per
+   padded row of the cells that are not empty and of the road cells, so the window
+   around a cell can be cut out of them with a few shifts.
+ */
+final class Overlay {
+
+    public final Grid grid;
+    public final Cell.Type[] types; // cell types of the board with the applied cells
+    private final long[] occupiedRows; // per padded row: bit per padded column, null if too wide;
+                                       // bits past the padded row are set
+    private final long[] roadRows;
+
+    private int[] logCell = new int[64]; // applied cells, in order
+    private Cell.Type[] logType = new Cell.Type[64]; // type each applied cell had before
+    private int logSize = 0;
+
+    public Overlay(BoardState state) {
+        this.grid = state.grid;
+        this.types = state.types.clone();
+        if (grid.width <= 64) {
+            occupiedRows = new long[grid.width];
+            roadRows = new long[grid.width];
+            if (grid.width < 64) {
+                Arrays.fill(occupiedRows, -1L << grid.width);
+            }
+            for (int idx = 0; idx < grid.size; idx++) {
+                setBits(idx);
+            }
+        }
+        else {
+            occupiedRows = null;
+            roadRows = null;
+        }
+    }
+
+    /* Updates the bitmaps for the type of a cell
+     */
+    private void setBits(int idx) {
+        int r = idx / grid.width;
+        long bit = 1L << (idx % grid.width);
+        if (types[idx] == Cell.Type.EMPTY) {
+            occupiedRows[r] &= ~bit;
+        }
+        else {
+            occupiedRows[r] |= bit;
+        }
+        if (types[idx] == Cell.Type.ROAD) {
+            roadRows[r] |= bit;
+        }
+        else {
+            roadRows[r] &= ~bit;
+        }
+    }
+
+    public boolean isEmpty(int idx) {
+        return types[idx] == Cell.Type.EMPTY;
+    }
+
+    /* Returns a mark to undo back to
+     */
+    public int mark() {
+        return logSize;
+    }
+
+    /* Sets the type of the given cells
+     */
+    public void apply(BitSet cells, Cell.Type type) {
+        for (int c = cells.nextSetBit(0); c >= 0; c = cells.nextSetBit(c+1)) {
+            if (logSize == logCell.length) {
+                logCell = Arrays.copyOf(logCell, 2 * logSize);
+                logType = Arrays.copyOf(logType, 2 * logSize);
+            }
+            logCell[logSize] = c;
+            logType[logSize] = types[c];
+            logSize++;
+            types[c] = type;
+            if (occupiedRows != null) {
+                setBits(c);
+            }
+        }
+    }
+
+    /* Returns the k-th cell applied; the cells applied since a mark are the ones
+       from the mark up to the current mark()
+     */
+    public int applied(int k) {
+        return logCell[k];
+    }
+
+    /* Rolls back every cell applied since the mark, most recent first
+     */
+    public void undo(int mark) {
+        while (logSize > mark) {
+            logSize--;
+            types[logCell[logSize]] = logType[logSize];
+            if (occupiedRows != null) {
+                setBits(logCell[logSize]);
+            }
+        }
+    }
+
+    /* Fills in the masks of the cells that are not empty and of the road cells in
+       the window of cells at most ShapeTables.WINDOW_RADIUS rows and columns away
+       from a cell on the board, laid out as by ShapeTables.setWindowBit(); cells
+       outside the board are not empty
+     */
+    public void window(int idx, long[] occupied, long[] road) {
+        int radius = ShapeTables.WINDOW_RADIUS;
+        int side = ShapeTables.WINDOW_SIDE;
+        int rowsPerWord = ShapeTables.WINDOW_ROWS_PER_WORD;
+        long rowBits = (1L << side) - 1;
+        int i = grid.row[idx];
+        int j = grid.col[idx];
+        Arrays.fill(occupied, 0);
+        Arrays.fill(road, 0);
+        for (int r = 0; r < side; r++) {
+            int row = i - radius + r;
+            long occupiedBits = 0;
+            long roadBits = 0;
+            if (row < 0 || row >= grid.side) {
+                occupiedBits = rowBits;
+            }
+            else if (occupiedRows == null) {
+                for (int b = 0; b < side; b++) {
+                    int col = j - radius + b;
+                    if (col < 0 || col >= grid.side) {
+                        occupiedBits |= 1L << b;
+                    }
+                    else if (types[grid.index(row, col)] != Cell.Type.EMPTY) {
+                        occupiedBits |= 1L << b;
+                        if (types[grid.index(row, col)] == Cell.Type.ROAD) {
+                            roadBits |= 1L << b;
+                        }
+                    }
+                }
+            }
+            else {
+                int shift = j - radius + 1; // padded column of the first bit
+                if (shift >= 0) {
+                    occupiedBits = (occupiedRows[row + 1] >>> shift) & rowBits;
+                    roadBits = (roadRows[row + 1] >>> shift) & rowBits;
+                }
+                else {
+                    occupiedBits = ((occupiedRows[row + 1] << -shift) | ((1L << -shift) - 1)) & rowBits;
+                    roadBits = (roadRows[row + 1] << -shift) & rowBits;
+                }
+            }
+            int at = (r % rowsPerWord) * side;
+            occupied[r / rowsPerWord] |= occupiedBits << at;
+            road[r / rowsPerWord] |= roadBits << at;
+        }
+    }
+
+} // end Overlay
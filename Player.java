@@ -6,6 +6,7 @@ import pentos.sim.Land;
 import pentos.sim.Move;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 public class Player implements pentos.sim.Player {
 
@@ -20,7 +21,23 @@ public class Player implements pentos.sim.Player {
     private int PERIMETER_PENALTY = 5; // penalty for each cell on the perimeter
     private int MIN_POTENTIAL_MOVES = 20; // min # of potential moves in vector before considering looking on the next row
     private int ROAD_ADJ_POND_PENALTY = 5; // penalty for each built road cell next to park/pond
-    
+    private boolean SPECULATE = false; // precompute board analysis in the background between moves
+    private int SPECULATED_SHAPES = 8; // # of most recently requested building rotations to precompute anchors for
+    private boolean WARM_UP = true; // exercise the hot paths on a synthetic board in init()
+    private long WARM_UP_MILLIS = 200; // time budget for the warm up
+    private String OPENING_BOOK = "opening.book"; // opening book file, used if it exists
+    private boolean PORTFOLIO = false; // also search with the alternative weights below, in parallel
+    private long PORTFOLIO_MILLIS = 100; // per move deadline for the alternative searches
+    private int PORTFOLIO_THREADS = 3; // worker threads for the alternative searches
+
+    // alternative scoring weights raced by the portfolio, each as {PACKING_FACTOR_MULTIPLE,
+    // PERIMETER_PENALTY, ROAD_ADJ_PENALTY, ROAD_ADJ_POND_PENALTY, BUILD_PARK_PENALTY}
+    private int[][] PORTFOLIO_WEIGHTS = {
+        {15, 5, 2, 5, 5}, // tighter packing
+        {10, 10, 2, 5, 5}, // keep the perimeter free for roads
+        {10, 5, 4, 10, 2}, // keep roads away from buildings and parks/ponds
+    };
+
     // parameter used for evaluating vector of parks/ponds to be built
     private int PARKPOND_PACKING_BONUS = 10; // bonus for each adjacent empty cell
 
@@ -28,16 +45,80 @@ public class Player implements pentos.sim.Player {
     private int POND_PENALTY = 5; // penalty for adjacent ponds/parks
     private int FACTORY_BONUS = 5; // bonus for adjacent factory cells
 
-    private Set<Cell> road_cells; // global to keep track of existing road network
-    private int resHighestI = 0; // global to keep track of highest built residence
+    private BitSet road_cells; // global to keep track of existing road network
+    private int movesPlayed = 0; // number of moves made so far this game
+
+    private ShapeTables tables; // precomputed shape rings and park/pond patterns
+    private Grid grid; // cell index space and canonical cells of the board
+    private BoardAnalysis analysis; // snapshot and derived structures for the current play()
+    private Skyline skyline; // per column development fronts of the current board
+    private FreeSpace freeSpace; // empty groups and runs of the current board
+    private Overlay overlay; // scratch board the moves under evaluation are applied to
+    private Map<String, Footprint> seenShapes; // recently requested building rotations by shape key,
+                                               // least recent first
+    private ExecutorService speculator; // background worker precomputing the next analysis
+    private Future<BoardAnalysis> speculation; // analysis of the board expected after our last move
+    private BoardState expected; // board expected after our last move
+    private OpeningBook book; // precomputed early game moves, null if there is no book
+    private ExecutorService portfolio; // workers searching with the alternative weights
+    private long deadline = Long.MAX_VALUE; // during a portfolio search: System.nanoTime() past
+                                           // which our own search settles for its moves so far
+    private volatile boolean cancelled = false; // set on an evaluator whose result is no longer
+                                                // wanted, so its search stops after the current row
+
+    // executors shared by every player in the JVM, created on first use
+    private static ExecutorService sharedSpeculator;
+    private static ExecutorService sharedPortfolio;
+
+    /* Move under evaluation, in cell indices: a building rotation placed at an anchor
+       cell, and the road, water and park cells to be built along with it
+     */
+    class Candidate {
+        public Building request;
+        public Building.Type type;
+        public int rotation;
+        public Footprint footprint;
+        public int anchor;
+        public BitSet building;
+        public BitSet ring; // cells around the building
+        public BitSet road;
+        public BitSet water;
+        public BitSet park;
+
+        public Candidate(Building request, Building.Type type, int rotation,
+                         Footprint footprint, int anchor,
+                         BitSet road, BitSet water, BitSet park) {
+            this.request = request;
+            this.type = type;
+            this.rotation = rotation;
+            this.footprint = footprint;
+            this.anchor = anchor;
+            this.building = footprint.cells(anchor);
+            this.ring = footprint.ring(anchor);
+            this.road = road;
+            this.water = water;
+            this.park = park;
+        }
+    }
+
+    /* What lies around a building, counted in one pass over its ring
+     */
+    class RingFeatures {
+        public int empty; // empty cells, not counting those under construction
+        public int emptyRoad; // empty cells under construction as road
+        public int road; // road cells, existing, under construction, or outside the board
+        public int[] types = new int[Cell.Type.values().length]; // cells per existing type
+        public boolean pond; // next to a pond, existing or under construction
+        public boolean field; // next to a field, existing or under construction
+    }
 
-    /* (Move, score) tuple
+    /* (Candidate, score) tuple
      */
     class ScoredMove implements Comparable<ScoredMove> {
-        public Move move;
+        public Candidate move;
         public int score;
 
-        public ScoredMove(Move move, int score) {
+        public ScoredMove(Candidate move, int score) {
             this.move = move;
             this.score = score;
         }
@@ -51,837 +132,1220 @@ public class Player implements pentos.sim.Player {
         }
     }
 
-    /* (Park/Pond, score) tuple
-     */
-    class ScoredParkPond implements Comparable<ScoredParkPond> {
-        public Set<Cell> parkPond;
-        public int score;
-
-        public ScoredParkPond(Set<Cell> parkPond, int score) {
-            this.parkPond = parkPond;
-            this.score = score;
+    public void init() {
+        // per game state, reset in case this player is initialized again
+        if (speculation != null) {
+            speculation.cancel(true);
+        }
+        speculation = null;
+        expected = null;
+        grid = null;
+        analysis = null;
+        overlay = null;
+        skyline = null;
+        freeSpace = null;
+        movesPlayed = 0;
+        road_cells = new BitSet();
+        seenShapes = new LinkedHashMap<String, Footprint>();
+        tables = ShapeTables.load();
+        book = OpeningBook.open(OPENING_BOOK);
+        if (SPECULATE) {
+            speculator = sharedSpeculator();
+        }
+        if (PORTFOLIO) {
+            portfolio = sharedPortfolio(PORTFOLIO_THREADS);
+        }
+        if (WARM_UP) {
+            warmUp(WARM_UP_MILLIS);
         }
+    }
 
-        public boolean equals(ScoredParkPond p) {
-            return parkPond == p.parkPond && score == p.score;
+    /* Returns the background worker shared by every player in the JVM. Players are
+       created per game, so executors of their own would leave idle threads behind
+       after every game; the shared threads are daemons and never keep the JVM alive.
+     */
+    private static synchronized ExecutorService sharedSpeculator() {
+        if (sharedSpeculator == null) {
+            sharedSpeculator = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "g9-speculator");
+                t.setDaemon(true);
+                return t;
+            });
         }
+        return sharedSpeculator;
+    }
 
-        public int compareTo(ScoredParkPond p) {
-            return score - p.score;
+    /* Returns the portfolio workers shared by every player in the JVM; the number of
+       threads is set by the first player to use them
+     */
+    private static synchronized ExecutorService sharedPortfolio(int threads) {
+        if (sharedPortfolio == null) {
+            sharedPortfolio = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "g9-portfolio");
+                t.setDaemon(true);
+                return t;
+            });
         }
+        return sharedPortfolio;
     }
 
-    public void init() {
-        road_cells = new HashSet<Cell>();
+    /* Runs the move evaluation hot paths on a synthetic board until the time budget
+       runs out, so they are compiled before the first timed play(). Uses a separate
+       player so the state of this one is untouched. Roads are not searched since
+       that needs a Land; candidates are placed against the perimeter and a road
+       row instead.
+     */
+    private void warmUp(long budgetMillis) {
+        long deadline = System.nanoTime() + budgetMillis * 1000000;
+        int side = 50;
+        Player w = new Player();
+        w.tables = tables;
+        w.grid = new Grid(side);
+        w.road_cells = new BitSet();
+
+        // synthetic board: a road row, a pond, a field and a few buildings
+        Grid g = w.grid;
+        Cell.Type[] types = new Cell.Type[g.size];
+        boolean[] pond = new boolean[g.size];
+        boolean[] field = new boolean[g.size];
+        for (int idx = 0; idx < g.size; idx++) {
+            if (g.onBoard[idx]) {
+                types[idx] = Cell.Type.EMPTY;
+            }
+        }
+        for (int j = 0; j < side; j++) {
+            types[g.index(side/2, j)] = Cell.Type.ROAD;
+            w.road_cells.set(g.index(side/2, j));
+        }
+        for (int k = 0; k < 4; k++) {
+            types[g.index(side/2 - 1, 10 + k)] = Cell.Type.WATER;
+            pond[g.index(side/2 - 1, 10 + k)] = true;
+            types[g.index(side/2 - 1, 20 + k)] = Cell.Type.PARK;
+            field[g.index(side/2 - 1, 20 + k)] = true;
+            types[g.index(side/2 + 1, 30 + k)] = Cell.Type.FACTORY;
+            types[g.index(side/2 - 1, 40 + k)] = Cell.Type.RESIDENCE;
+        }
+        BoardState state = new BoardState(g, types, pond, field, Zobrist.hash(g, types));
+        w.analysis = new BoardAnalysis(state, new Vector<Footprint>());
+        w.overlay = new Overlay(state);
+
+        Vector<ScoredMove> potentialMoves = new Vector<ScoredMove>();
+        while (System.nanoTime() < deadline) {
+            for (int s = 0; s < tables.shapes.length && System.nanoTime() < deadline; s++) {
+                Footprint f = new Footprint(tables.shapes[s][0], tables.shapes[s][1], g, tables);
+                Building request = null; // only the type of the request is looked at
+                Building.Type type = (f.size() == 5) ? Building.Type.RESIDENCE :
+                    Building.Type.FACTORY;
+                for (int i = side/2 - 6; i < side/2 + 6; i++) {
+                    for (int j = 0; j < side; j += 3) {
+                        int anchor = g.index(i, j);
+                        if (!w.analysis.buildable(f, i, j)) {
+                            continue;
+                        }
+                        Candidate potential = w.new Candidate(request, type, 0, f, anchor,
+                                                              new BitSet(), new BitSet(),
+                                                              new BitSet());
+                        if (w.hasRoadConnection(potential.building, potential.road)) {
+                            w.evaluateCandidate(potential, potentialMoves);
+                        }
+                    }
+                }
+                potentialMoves.clear();
+            }
+        }
     }
 
     /* For each request, within the search space, generate moves for each cell, score them,
-       and choose the highest scoring move.
-       For residences the search space is the top row down to the lowest row that has had a 
-       residence previously built; for factories the search space starts at the bottom right 
-       and ends once a minimum number of potential moves has been found. This ensures residences 
-       grow from top of the board downwards, and factories grow from bottom up.
+       and choose the highest scoring move. Early in the game the move may come from the
+       opening book instead. Requests that can't be placed are rejected, without a search
+       when the free space shows they can't fit.
      */
     public Move play(Building request, Land land) {
-        Vector<ScoredMove> potentialMoves = new Vector<ScoredMove>();
         Move nextMove = null;
-        
-        if (request.type == Building.Type.RESIDENCE) {
-            for (int i = 0; i < land.side; i++) {
-                for (int j = 0; j < land.side; j++) {
-                    evaluateMovesAt(i, j, request, land, potentialMoves);  
+        if (grid == null || grid.side != land.side) {
+            // every empty board hashes to 0, so profiles of another size must go
+            grid = new Grid(land.side);
+            skyline = null;
+            freeSpace = null;
+        }
+        analysis = takeAnalysis(land);
+        overlay = new Overlay(analysis.state);
+        if (skyline == null || skyline.state.hash != analysis.state.hash) {
+            skyline = Skyline.of(analysis.state, (skyline == null) ? 0 : skyline.residenceFront);
+        }
+        if (freeSpace == null || freeSpace.state.hash != analysis.state.hash) {
+            freeSpace = FreeSpace.of(analysis.state);
+        }
+
+        Footprint[] footprints = new Footprint[request.rotations().length];
+        for (int r = 0; r < footprints.length; r++) {
+            footprints[r] = new Footprint(request.rotations()[r], grid, tables);
+            seenShapes.remove(footprints[r].key);
+            seenShapes.put(footprints[r].key, footprints[r]);
+        }
+        while (seenShapes.size() > SPECULATED_SHAPES) {
+            seenShapes.remove(seenShapes.keySet().iterator().next());
+        }
+
+        // reject right away if the request can't fit anywhere on the board
+        if (!freeSpace.mayFit(footprints)) {
+            return new Move(false);
+        }
+
+        Candidate bestMove = lookupBook(request, footprints);
+        if (bestMove == null && PORTFOLIO) {
+            bestMove = searchPortfolio(request, footprints);
+        }
+        else if (bestMove == null) {
+            Vector<ScoredMove> potentialMoves = searchMoves(request, request.type, footprints,
+                                                            land);
+
+            // get the move with highest score from Vector potentialMoves
+            if (!potentialMoves.isEmpty()) {
+                Collections.sort(potentialMoves);
+                ScoredMove bestScoredMove = potentialMoves.lastElement();
+                bestMove = bestScoredMove.move;
+            }
+        }
+        if (bestMove == null) {
+            return new Move(false); // no place for the request
+        }
+        road_cells.or(bestMove.road);
+        nextMove = toMove(bestMove);
+
+        // update the expected board and its development fronts with the move
+        Cell.Type buildingType = (bestMove.type == Building.Type.RESIDENCE) ?
+            Cell.Type.RESIDENCE : Cell.Type.FACTORY;
+        expected = analysis.state.after(buildingType, bestMove.building, bestMove.road,
+                                        bestMove.water, bestMove.park);
+        BitSet built = (BitSet) bestMove.building.clone();
+        built.or(bestMove.road);
+        built.or(bestMove.water);
+        built.or(bestMove.park);
+        skyline = skyline.after(expected, built, grid.row[bestMove.anchor]);
+        freeSpace = freeSpace.after(expected, built);
+
+        movesPlayed++;
+        speculate();
+        return nextMove;
+    } // end play()
+
+    /* Generates moves for each cell within the search space and scores them.
+       For residences the search space is the first row with empty cells down to the lowest
+       row a residence has previously been anchored at, and carries on past it until a minimum
+       number of potential moves has been found; for factories the search space starts at the
+       last row with empty cells, bottom right, and ends once a minimum number of potential
+       moves has been found. This ensures residences grow from top of the board downwards,
+       and factories grow from bottom up, without rescanning the fully built rows. Within a row, anchors that would place every rotation across a
+       column with no empty cells in the rows it covers are skipped.
+     */
+    private Vector<ScoredMove> searchMoves(Building request, Building.Type type,
+                                           Footprint[] footprints, Land land) {
+        Vector<ScoredMove> potentialMoves = new Vector<ScoredMove>();
+        int side = grid.side;
+
+        // rows fully built above or below the free extent can't hold any cell of the
+        // building, so no rotation can be anchored before firstRow or after lastRow
+        int firstRow = side;
+        int lastRow = -1;
+        for (Footprint f : footprints) {
+            firstRow = Math.min(firstRow, skyline.firstFreeRow() - f.minRow());
+            lastRow = Math.max(lastRow, skyline.lastFreeRow() - f.maxRow());
+        }
+        firstRow = Math.max(firstRow, 0);
+        lastRow = Math.min(lastRow, side-1);
+
+        // per rotation, the columns blocked in the rows it covers from the current row
+        int[][] blocked = new int[footprints.length][side+1];
+
+        if (type == Building.Type.RESIDENCE) {
+            for (int i = firstRow; i < side; i++) {
+                blockedColumns(i, footprints, blocked);
+                for (int j = 0; j < side; j++) {
+                    if (fitsColumns(j, footprints, blocked)) {
+                        evaluateMovesAt(i, j, request, type, footprints, land, potentialMoves);
+                    }
                 }
 
-                if (i >= resHighestI && potentialMoves.size() >= MIN_POTENTIAL_MOVES) {
+                if (i >= skyline.residenceFront && potentialMoves.size() >= MIN_POTENTIAL_MOVES) {
                     break; // searched thru constrained space and found enough moves
                 }
+                if (outOfTime(potentialMoves)) {
+                    break; // portfolio search past its deadline
+                }
             }
-            
+
         }
         else {
             // request is factory
-            for (int i = land.side-1; i >= 0; i--) {
-                for (int j = land.side-1; j >= 0; j--) {
-                    evaluateMovesAt(i, j, request, land, potentialMoves);  
+            for (int i = lastRow; i >= 0; i--) {
+                blockedColumns(i, footprints, blocked);
+                for (int j = side-1; j >= 0; j--) {
+                    if (fitsColumns(j, footprints, blocked)) {
+                        evaluateMovesAt(i, j, request, type, footprints, land, potentialMoves);
+                    }
                 }
                 if (potentialMoves.size() >= MIN_POTENTIAL_MOVES) {
                     break; // searched thru constrained space and found enough moves
                 }
+                if (outOfTime(potentialMoves)) {
+                    break; // portfolio search past its deadline
+                }
             }
         }
+        return potentialMoves;
+    }
+
+    /* Returns if a search should stop after the current row: it is an evaluator that
+       was cancelled, or our own portfolio search past its deadline with a move to
+       fall back on. Outside the portfolio search neither applies.
+     */
+    private boolean outOfTime(Vector<ScoredMove> potentialMoves) {
+        return cancelled || (!potentialMoves.isEmpty() && System.nanoTime() > deadline);
+    }
+
+    /* Fills in, for each rotation anchored in row i, the blocked columns of the rows
+       it covers, as counted by Skyline.blockedColumns()
+     */
+    private void blockedColumns(int i, Footprint[] footprints, int[][] blocked) {
+        for (int r = 0; r < footprints.length; r++) {
+            skyline.blockedColumns(i + footprints[r].minRow(), i + footprints[r].maxRow(),
+                                   blocked[r]);
+        }
+    }
+
+    /* Returns if some rotation anchored in column j covers no blocked column
+     */
+    private boolean fitsColumns(int j, Footprint[] footprints, int[][] blocked) {
+        int side = grid.side;
+        for (int r = 0; r < footprints.length; r++) {
+            int from = j + footprints[r].minCol();
+            int to = j + footprints[r].maxCol();
+            if (from >= 0 && to < side && blocked[r][to+1] == blocked[r][from]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Portfolio search: races the alternative scoring weights against our own. This
+       player searches with its weights, while one evaluator per set of alternative
+       weights searches the same read-only analysis on a worker thread, with its own
+       overlay. Every weight set finds its roads the same way, on the snapshot, since
+       the Land can't be shared between threads, so they only differ in how they score.
+       Alternatives that have not finished by the deadline are cancelled. Our own search
+       stops at the deadline too, with the best move found so far; if it has found none
+       yet it carries on until it finds one, so a request is still only rejected when the
+       whole search finds no move. Of the best moves of every weight set, the one leaving
+       the largest connected empty area with a road connection wins; ties go to our own
+       weights, then to the earlier alternative. Returns null if our own search finds no
+       move.
+     */
+    private Candidate searchPortfolio(Building request, Footprint[] footprints) {
+        long deadline = System.nanoTime() + PORTFOLIO_MILLIS * 1000000;
+        analysis.prepare(footprints);
+        Vector<Player> evaluators = new Vector<Player>();
+        Vector<Future<Candidate>> alternatives = new Vector<Future<Candidate>>();
+        for (int[] weights : PORTFOLIO_WEIGHTS) {
+            Player e = evaluator(weights);
+            evaluators.add(e);
+            alternatives.add(portfolio.submit(() -> {
+                Vector<ScoredMove> moves = e.searchMoves(request, request.type, footprints,
+                                                         null);
+                if (moves.isEmpty()) {
+                    return null;
+                }
+                Collections.sort(moves);
+                return moves.lastElement().move;
+            }));
+        }
 
-        // get the move with highest score from Vector potentialMoves
+        this.deadline = deadline;
+        Vector<ScoredMove> potentialMoves;
+        try {
+            potentialMoves = searchMoves(request, request.type, footprints, null);
+        } finally {
+            this.deadline = Long.MAX_VALUE;
+        }
+        if (potentialMoves.isEmpty()) {
+            for (int k = 0; k < alternatives.size(); k++) {
+                evaluators.get(k).cancelled = true;
+                alternatives.get(k).cancel(false);
+            }
+            return null;
+        }
         Collections.sort(potentialMoves);
-        ScoredMove bestScoredMove = potentialMoves.lastElement();
-        Move bestMove = bestScoredMove.move;
-        Building b = bestMove.request.rotations()[bestMove.rotation];
-        Set<Cell> absBuildingCells = getAbsCells(b, bestMove.location);
-        road_cells.addAll(bestMove.road);
-        nextMove = bestMove;
+        Candidate bestMove = potentialMoves.lastElement().move;
+        int bestArea = largestBuildableArea(bestMove);
+
+        for (int k = 0; k < alternatives.size(); k++) {
+            Future<Candidate> f = alternatives.get(k);
+            Candidate move = null;
+            try {
+                move = f.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                evaluators.get(k).cancelled = true;
+                f.cancel(false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                evaluators.get(k).cancelled = true;
+                f.cancel(false);
+            } catch (ExecutionException e) {
+                // the alternative failed, keep what we have
+            }
+            if (move == null) {
+                continue;
+            }
+            int area = largestBuildableArea(move);
+            if (area > bestArea) {
+                bestArea = area;
+                bestMove = move;
+            }
+        }
+        return bestMove;
+    }
 
-        // if residence, update highest i that residences have reached
-        if (nextMove.accept && request.type == Building.Type.RESIDENCE) {
-            int moveI = nextMove.location.i;
-            resHighestI = Math.max(resHighestI, moveI);
-            resHighestI = Math.min(resHighestI, land.side-1);
+    /* Returns a player scoring with the given alternative weights, set up to search
+       the current board. It shares the tables, analysis and skyline of this player,
+       which it only reads, but has its own overlay and copy of the road network.
+     */
+    private Player evaluator(int[] weights) {
+        Player e = new Player();
+        e.PACKING_FACTOR_MULTIPLE = weights[0];
+        e.PERIMETER_PENALTY = weights[1];
+        e.ROAD_ADJ_PENALTY = weights[2];
+        e.ROAD_ADJ_POND_PENALTY = weights[3];
+        e.BUILD_PARK_PENALTY = weights[4];
+        e.tables = tables;
+        e.grid = grid;
+        e.analysis = analysis;
+        e.skyline = skyline;
+        e.overlay = new Overlay(analysis.state);
+        e.road_cells = (BitSet) road_cells.clone();
+        return e;
+    }
+
+    /* Offline entry point, used to generate the opening book: sets this player up for
+       the given board and residence front, and returns the scored moves for a request
+       shape, searched within the same rows and in the same order as in play()
+     */
+    Vector<ScoredMove> searchOffline(BoardState state, int residenceFront, Building.Type type,
+                                     Footprint[] footprints) {
+        if (tables == null) {
+            tables = ShapeTables.load();
+        }
+        grid = state.grid;
+        analysis = new BoardAnalysis(state, new Vector<Footprint>());
+        overlay = new Overlay(state);
+        skyline = Skyline.of(state, residenceFront);
+        road_cells = new BitSet();
+        for (int idx = 0; idx < grid.size; idx++) {
+            if (state.types[idx] == Cell.Type.ROAD) {
+                road_cells.set(idx);
+            }
         }
+        return searchMoves(null, type, footprints, null);
+    }
 
-        return nextMove;
-    } // end play()
+    /* Returns the opening book move for the current board and request, or null if
+       the book has none or the booked move is not legal on this board
+     */
+    private Candidate lookupBook(Building request, Footprint[] footprints) {
+        if (book == null || movesPlayed >= book.depth) {
+            return null;
+        }
+        long shapeId = OpeningBook.shapeId(request.type == Building.Type.RESIDENCE, footprints);
+        int[][] booked = book.lookup(analysis.state.hash, shapeId, grid);
+        if (booked == null) {
+            return null;
+        }
+
+        BitSet building = toBitSet(booked[0]);
+        BitSet road = toBitSet(booked[1]);
+        BitSet water = toBitSet(booked[2]);
+        BitSet park = toBitSet(booked[3]);
+
+        // find the rotation and anchor placing the building on exactly the booked cells
+        for (int r = 0; r < footprints.length; r++) {
+            Footprint f = footprints[r];
+            if (f.size() != building.cardinality()) {
+                continue;
+            }
+            int minOffset = Integer.MAX_VALUE;
+            for (int off : f.offset) {
+                minOffset = Math.min(minOffset, off);
+            }
+            int anchor = building.nextSetBit(0) - minOffset;
+            if (anchor < 0 || anchor >= grid.size || !grid.onBoard[anchor] ||
+                !analysis.buildable(f, grid.row[anchor], grid.col[anchor]) ||
+                !f.cells(anchor).equals(building)) {
+                continue;
+            }
+
+            Candidate c = new Candidate(request, request.type, r, f, anchor, road, water, park);
+            if (isLegal(c)) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    private BitSet toBitSet(int[] indices) {
+        BitSet output = new BitSet();
+        for (int idx : indices) {
+            output.set(idx);
+        }
+        return output;
+    }
+
+    /* Checks a move that didn't come from our own search: its road, water and park
+       cells must be empty and not overlap, the building must be connected to a road,
+       and every new road cell must be connected to the existing road network
+     */
+    private boolean isLegal(Candidate move) {
+        BitSet used = (BitSet) move.building.clone();
+        BitSet[] extra = {move.road, move.water, move.park};
+        for (BitSet cells : extra) {
+            for (int c = cells.nextSetBit(0); c >= 0; c = cells.nextSetBit(c+1)) {
+                if (!analysis.isEmpty(c) || used.get(c)) {
+                    return false;
+                }
+                used.set(c);
+            }
+        }
+        if (!hasRoadConnection(move.building, move.road)) {
+            return false;
+        }
+
+        // grow the connected road from cells on the perimeter or next to existing road
+        BitSet connected = new BitSet();
+        boolean grew = true;
+        while (grew) {
+            grew = false;
+            for (int c = move.road.nextSetBit(0); c >= 0; c = move.road.nextSetBit(c+1)) {
+                if (connected.get(c)) {
+                    continue;
+                }
+                boolean link = grid.perimeter[c];
+                for (int d = 0; d < 4 && !link; d++) {
+                    int n = grid.neighbors[4*c + d];
+                    link = analysis.types[n] == Cell.Type.ROAD || connected.get(n);
+                }
+                if (link) {
+                    connected.set(c);
+                    grew = true;
+                }
+            }
+        }
+        return connected.equals(move.road);
+    }
+
+    /* Converts a candidate into the Move handed back to the simulator
+     */
+    private Move toMove(Candidate c) {
+        return new Move(true, c.request, grid.cells[c.anchor], c.rotation,
+                        grid.toCells(c.road), grid.toCells(c.water), grid.toCells(c.park));
+    }
+
+    /* Returns the analysis of the current land: the background speculation if it
+       has finished and was computed against exactly this board, otherwise a fresh
+       one. Speculation goes stale when the board differs from the one expected after
+       our last move, e.g. when the move was rejected. Unfinished speculation is
+       cancelled rather than waited for, since analyzing the land directly costs no
+       more than the rest of it would.
+     */
+    private BoardAnalysis takeAnalysis(Land land) {
+        Future<BoardAnalysis> pending = speculation;
+        speculation = null;
+        if (pending != null) {
+            if (pending.isDone() && expected.matches(land)) {
+                try {
+                    return pending.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // fall through and analyze the land directly
+                }
+            }
+            else {
+                pending.cancel(true);
+            }
+        }
+        return BoardAnalysis.of(land, grid);
+    }
+
+    /* Starts analyzing, in the background, the board expected once the simulator
+       applies our last move, so the next play() can reuse it. Only the anchor masks
+       of the most recently requested rotations are precomputed along with the road
+       distances; other shapes get theirs on first use.
+     */
+    private void speculate() {
+        if (!SPECULATE) {
+            return;
+        }
+        BoardState next = expected;
+        Collection<Footprint> shapes = new Vector<Footprint>(seenShapes.values());
+        speculation = speculator.submit(() -> new BoardAnalysis(next, shapes));
+    }
 
     /* For a given location and request, checks all rotations of the building
        in that location and assigns a score to each, adds it to the vector of
        potential moves
      */
-    private void evaluateMovesAt(int i, int j, Building request,
-                                 Land land, Vector<ScoredMove> potentialMoves) {
+    private void evaluateMovesAt(int i, int j, Building request, Building.Type type,
+                                 Footprint[] footprints, Land land,
+                                 Vector<ScoredMove> potentialMoves) {
+        int anchor = grid.index(i, j);
+
         // evaluate each rotation in this build spot
-        for (int r = 0; r < request.rotations().length; r++) {
-            Building b = request.rotations()[r];
-            Cell buildingPos = new Cell(i, j);
-
-            Set<Cell> absBuildingCells = getAbsCells(b, buildingPos);
-            Set<Cell> water = new HashSet<Cell>();
-            Set<Cell> park = new HashSet<Cell>();
-            Set<Cell> road = new HashSet<Cell>();
-            
-            if (land.buildable(b, buildingPos)) {
+        for (int r = 0; r < footprints.length; r++) {
+            Footprint f = footprints[r];
+
+            if (analysis.buildable(f, i, j) && analysis.reachesRoad(f, anchor)) {
                 // start by connecting the building to road network
-                road = findShortestRoad(absBuildingCells, land);
-                Move potential = new Move(true, request, buildingPos, r, road, water, park);
-                if (road == null || !hasRoadConnection(b, buildingPos, land, road)) {
+                BitSet absBuildingCells = f.cells(anchor);
+                BitSet road = findRoad(absBuildingCells, land);
+                if (road == null) {
                     continue;
                 }
-
-                // score this move
-                int score = scoreMove(potential, land);
-                ScoredMove sMove = new ScoredMove(potential, score);
-                potentialMoves.add(sMove);
-
-                // for residences, try building parks/ponds and score the new move
-                if (request.type == Building.Type.RESIDENCE) {
-                    Move potentialPlus = buildParksPonds(potential, land);
-                    int scorePlus = scoreMove(potentialPlus, land);
-                    ScoredMove sMovePlus = new ScoredMove(potentialPlus, scorePlus);
-                    potentialMoves.add(sMovePlus);
+                Candidate potential = new Candidate(request, type, r, f, anchor,
+                                                    road, new BitSet(), new BitSet());
+                if (!hasRoadConnection(absBuildingCells, road)) {
+                    continue;
                 }
+
+                evaluateCandidate(potential, potentialMoves);
             }
         } // end building rotations for loop
     } // end evaluateMovesAt
 
+    /* Returns the road cells to build to connect a building to the road network, or
+       null if it can't be connected. The road is searched by findShortestRoad on the
+       Land; with no Land (offline, when generating the opening book) by a shortest
+       path search on the board snapshot instead.
+     */
+    private BitSet findRoad(BitSet absBuildingCells, Land land) {
+        if (land != null) {
+            Set<Cell> roadCells = findShortestRoad(grid.toCells(absBuildingCells), land);
+            return (roadCells == null) ? null : grid.toIndices(roadCells);
+        }
+
+        // already connected if on the perimeter or next to an existing road
+        for (int c = absBuildingCells.nextSetBit(0); c >= 0;
+             c = absBuildingCells.nextSetBit(c+1)) {
+            if (isRoadContact(c)) {
+                return new BitSet();
+            }
+        }
+
+        // BFS over empty cells from the building to a cell with a road connection
+        int[] previous = new int[grid.size];
+        Arrays.fill(previous, -2);
+        int[] queue = new int[grid.size];
+        int head = 0;
+        int tail = 0;
+        for (int c = absBuildingCells.nextSetBit(0); c >= 0;
+             c = absBuildingCells.nextSetBit(c+1)) {
+            for (int d = 0; d < 4; d++) {
+                int n = grid.neighbors[4*c + d];
+                if (analysis.isEmpty(n) && !absBuildingCells.get(n) && previous[n] == -2) {
+                    previous[n] = -1;
+                    queue[tail++] = n;
+                }
+            }
+        }
+
+        while (head < tail) {
+            int curr = queue[head++];
+            if (isRoadContact(curr)) {
+                BitSet road = new BitSet();
+                for (int c = curr; c != -1; c = previous[c]) {
+                    road.set(c);
+                }
+                return road;
+            }
+            for (int d = 0; d < 4; d++) {
+                int n = grid.neighbors[4*curr + d];
+                if (analysis.isEmpty(n) && !absBuildingCells.get(n) && previous[n] == -2) {
+                    previous[n] = curr;
+                    queue[tail++] = n;
+                }
+            }
+        }
+        return null;
+    }
+
+    /* Scores a candidate connected to the road network and adds it to the vector of
+       potential moves; for residences also adds it with parks/ponds built
+     */
+    private void evaluateCandidate(Candidate potential, Vector<ScoredMove> potentialMoves) {
+        // score this move
+        int score = scoreMove(potential);
+        ScoredMove sMove = new ScoredMove(potential, score);
+        potentialMoves.add(sMove);
+
+        // for residences, try building parks/ponds and score the new move
+        if (potential.type == Building.Type.RESIDENCE) {
+            Candidate potentialPlus = buildParksPonds(potential);
+            int scorePlus = scoreMove(potentialPlus);
+            ScoredMove sMovePlus = new ScoredMove(potentialPlus, scorePlus);
+            potentialMoves.add(sMovePlus);
+        }
+    }
+
     /* Scores moves
      */
-    private int scoreMove(Move move, Land land) {
+    private int scoreMove(Candidate move) {
         int score = 0;
-        Building request = move.request;
-        Building b = request.rotations()[move.rotation];
-        Cell buildingPos = move.location;
-        Set<Cell> absBuildingCells = getAbsCells(b, buildingPos);
-        Set<Cell> road = move.road;
-        Set<Cell> water = move.water;
-        Set<Cell> park = move.park;
-        Set<Cell> markedForConstruction = new HashSet<Cell>();
-        markedForConstruction.addAll(water);
-        markedForConstruction.addAll(park);
+        BitSet absBuildingCells = move.building;
+        BitSet ring = move.ring;
+        BitSet road = move.road;
+        BitSet water = move.water;
+        BitSet park = move.park;
+        RingFeatures features = extractFeatures(ring, road, water, park);
 
         // start with base score
-        score = b.size() * BASE_BUILDING_SCORE;
+        score = move.footprint.size() * BASE_BUILDING_SCORE;
 
         // assess penalty for each empty cell next to building (how well-packed it is)
-        if (request.type == Building.Type.RESIDENCE) {
-            score -= getPackingFactor(b, buildingPos, land, markedForConstruction);
-        }
-        else {
-            markedForConstruction.addAll(road); // for factories, roads count towards packed-ness score
-            score -= getPackingFactor(b, buildingPos, land, markedForConstruction);            
+        // for residences: adjacent roads count as being "empty"
+        // for factories: adjacent roads count towards packing
+        int emptyNeighbors = features.empty;
+        if (move.type == Building.Type.RESIDENCE) {
+            emptyNeighbors += features.emptyRoad + features.types[Cell.Type.ROAD.ordinal()];
         }
+        score -= emptyNeighbors * PACKING_FACTOR_MULTIPLE;
 
         // residences: bonus to parks/ponds, subject to penalty per additional cell built
-        if (request.type == Building.Type.RESIDENCE) {
-            if (adjacentPond(b, buildingPos, land, water)) {
+        if (move.type == Building.Type.RESIDENCE) {
+            if (features.pond) {
                 score += POND_BONUS_SCORE;
             }
 
-            if (adjacentField(b, buildingPos, land, park)) {
+            if (features.field) {
                 score += FIELD_BONUS_SCORE;
             }
-            score -= (water.size() + park.size()) * BUILD_PARK_PENALTY;
+            score -= (water.cardinality() + park.cardinality()) * BUILD_PARK_PENALTY;
         }
 
         // factories: penalty for adjacency to parks/ponds, bonus for factory adjacency
-        if (request.type == Building.Type.FACTORY) {
-            score -= numAdjType(b, buildingPos, land, Cell.Type.WATER) * POND_PENALTY;
-            score -= numAdjType(b, buildingPos, land, Cell.Type.PARK) * POND_PENALTY;
-            score += numAdjType(b, buildingPos, land, Cell.Type.FACTORY) * FACTORY_BONUS;
+        if (move.type == Building.Type.FACTORY) {
+            score -= features.types[Cell.Type.WATER.ordinal()] * POND_PENALTY;
+            score -= features.types[Cell.Type.PARK.ordinal()] * POND_PENALTY;
+            score += features.types[Cell.Type.FACTORY.ordinal()] * FACTORY_BONUS;
         }
 
         // assess penalty for additional roads built and number of adjacent road cells
-        score -= road.size() * BUILD_ROAD_PENALTY;
-        score -= numAdjRoad(b, buildingPos, land, road) * ROAD_ADJ_PENALTY;
+        score -= road.cardinality() * BUILD_ROAD_PENALTY;
+        score -= features.road * ROAD_ADJ_PENALTY;
+
+        // the remaining terms look at the board with the move applied
+        int mark = overlay.mark();
+        applyMove(move);
 
         // assess penalty for perimeter spaces taken up
-        int cellsOnPerimeter = countPerimeterCells(land, absBuildingCells);
-        cellsOnPerimeter += countPerimeterCells(land, road);
-        cellsOnPerimeter += countPerimeterCells(land, water);
-        cellsOnPerimeter += countPerimeterCells(land, park);
+        int cellsOnPerimeter = countPerimeterCells(absBuildingCells);
+        cellsOnPerimeter += countPerimeterCells(road);
+        cellsOnPerimeter += countPerimeterCells(water);
+        cellsOnPerimeter += countPerimeterCells(park);
         score -= cellsOnPerimeter * PERIMETER_PENALTY;
 
         // check how many built road cells are built next to park/pond
-        int roadCellsAdjParkPond = countRoadAdjParkPond(road, land, water, park);
+        int roadCellsAdjParkPond = countRoadAdjParkPond(road);
         score -= roadCellsAdjParkPond * ROAD_ADJ_POND_PENALTY;
-        
+
         // basic final check to heavily penalize cutting off large amounts of free cells from road network
-        int numCellsCutOff = countCellsCutOff(move, land);
+        int numCellsCutOff = countCellsCutOff(mark);
         if (numCellsCutOff > 20) {
             score -= Math.pow(2, 20); // cap penalty at 2^20
         }
         else {
             score -= Math.pow(2, numCellsCutOff);
         }
+        overlay.undo(mark);
 
         return score;
     }
-    
-    /* Returns number of adjacent empty cells (how well packed the building is)
-       for residences: adjacent roads count as being "empty"
-       for factories: adjacent roads count towards packing
-     */
-    private int getPackingFactor(Building b, Cell position, Land land,
-                                Set<Cell> markedForConstruction) {
-        Set<Cell> emptyNeighbors = new HashSet<Cell>();
-        Set<Cell> absBuildingCells = getAbsCells(b, position);
-        markedForConstruction.addAll(absBuildingCells);
-        Set<Cell> neighbors = new HashSet<Cell>();
-        for (Cell c : absBuildingCells) {
-            Cell[] cNeighbors = c.neighbors();
-            for (Cell n : cNeighbors) {
-                neighbors.add(n);
-            }
-        }
 
-        for (Cell c : neighbors) {
-            if (markedForConstruction.contains(c)) {
-                continue;
-            }
-            if (b.type == Building.Type.RESIDENCE) {
-                if (land.getCellType(c.i, c.j) == Cell.Type.ROAD || land.unoccupied(c)) {
-                    emptyNeighbors.add(c);
-                }
-            }
-            else {
-                if (land.unoccupied(c)) {
-                    emptyNeighbors.add(c);
-                }
-            }
-        }
-        return emptyNeighbors.size() * PACKING_FACTOR_MULTIPLE;
+    /* Applies the cells of a move to the overlay
+     */
+    private void applyMove(Candidate move) {
+        overlay.apply(move.building, (move.type == Building.Type.RESIDENCE) ?
+                      Cell.Type.RESIDENCE : Cell.Type.FACTORY);
+        overlay.apply(move.road, Cell.Type.ROAD);
+        overlay.apply(move.water, Cell.Type.WATER);
+        overlay.apply(move.park, Cell.Type.PARK);
     }
 
-    /* Checks if building to be placed is adjacent to a pond (existing or 
-       under construction)
+    /* Returns the distinct neighbors of a set of cells
      */
-    public boolean adjacentPond(Building b, Cell position, Land land,
-                                Set<Cell> water) {
-        Set<Cell> adjacentPoints = new HashSet<Cell>();
-        for (Cell c : b) {
-            Cell abs = new Cell(c.i + position.i, c.j + position.j);
-            Cell[] adj = abs.neighbors();
-            for (Cell a : adj) {
-                adjacentPoints.add(a);
-            }
-        }
-
-        for (Cell p : adjacentPoints) {
-            if (land.isPond(p)) {
-                return true;
-            }
-            for (Cell w : water) {
-                if (w.equals(p)) {
-                    return true;
-                }
+    private BitSet getNeighbors(BitSet cells) {
+        BitSet neighbors = new BitSet();
+        for (int c = cells.nextSetBit(0); c >= 0; c = cells.nextSetBit(c+1)) {
+            for (int d = 0; d < 4; d++) {
+                neighbors.set(grid.neighbors[4*c + d]);
             }
         }
-        return false;
+        return neighbors;
     }
 
-    /* Checks if building to be placed is adjacent to a field
+    /* Walks the ring of cells around a building once and counts everything
+       scoreMove needs to know about it
      */
-    public boolean adjacentField(Building b, Cell position, Land land,
-                                 Set<Cell> park) {
-        Set<Cell> adjacentPoints = new HashSet<Cell>();
-        for (Cell c : b) {
-            Cell abs = new Cell(c.i + position.i, c.j + position.j);
-            Cell[] adj = abs.neighbors();
-            for (Cell a : adj) {
-                adjacentPoints.add(a);
+    private RingFeatures extractFeatures(BitSet ring, BitSet road, BitSet water,
+                                         BitSet park) {
+        RingFeatures features = new RingFeatures();
+        for (int c = ring.nextSetBit(0); c >= 0; c = ring.nextSetBit(c+1)) {
+            Cell.Type type = analysis.types[c];
+            if (type == null) {
+                features.road++; // cells outside the board count as road
+                continue;
             }
-        }
+            features.types[type.ordinal()]++;
 
-        for (Cell p : adjacentPoints) {
-            if (land.isField(p)) {
-                return true;
+            if (water.get(c)) {
+                features.pond = true;
             }
-            for (Cell f : park) {
-                if (f.equals(p)) {
-                    return true;
-                }
+            else if (park.get(c)) {
+                features.field = true;
             }
-        }
-        return false;
-    }
-
-    /* Counts how many road cells are adjacent to a building
-     */
-    public int numAdjRoad(Building b, Cell position, Land land, Set<Cell> road) {
-        Set<Cell> adjRoadCells = new HashSet<Cell>();
-        Set<Cell> adjacentPoints = new HashSet<Cell>();
-        for (Cell c : b) {
-            Cell abs = new Cell(c.i + position.i, c.j + position.j);
-            Cell[] adj = abs.neighbors();
-            for (Cell a : adj) {
-                adjacentPoints.add(a);
+            else if (road.get(c)) {
+                features.emptyRoad++;
+                features.road++;
             }
-        }
-
-        for (Cell p : adjacentPoints) {
-            if (p.i < 0 || p.j < 0 || p.i >= land.side || p.j >= land.side) {
-                adjRoadCells.add(p);
+            else if (type == Cell.Type.EMPTY) {
+                features.empty++;
             }
-            else if (road_cells.contains(p)) {
-                adjRoadCells.add(p);
-            }
-            else if (road.contains(p)) {
-                adjRoadCells.add(p);
+
+            if (road_cells.get(c)) {
+                features.road++;
             }
+            features.pond |= analysis.pond[c];
+            features.field |= analysis.field[c];
         }
-        return adjRoadCells.size();
+        return features;
     }
 
-    /* Counts how many adjacent cells to a building of a given type - does NOT 
-       count NOT count any cells currently under construction
+    /* Checks if building to be placed is adjacent to a pond, given the ring of
+       cells around it
      */
-    public int numAdjType(Building b, Cell buildingPos, Land land, Cell.Type type) {
-        Set<Cell> adjacent = new HashSet<Cell>();
-        Set<Cell> absBuildingCells = getAbsCells(b, buildingPos);
-        Set<Cell> neighbors = new HashSet<Cell>();
-
-        for (Cell c : absBuildingCells) {
-            Cell[] cNeighbors = c.neighbors();
-            for (Cell n : cNeighbors) {
-                neighbors.add(n);
+    public boolean adjacentPond(BitSet ring) {
+        for (int p = ring.nextSetBit(0); p >= 0; p = ring.nextSetBit(p+1)) {
+            if (analysis.pond[p]) {
+                return true;
             }
         }
+        return false;
+    }
 
-        for (Cell c : neighbors) {
-            if (land.getCellType(c.i, c.j) == type) {
-                adjacent.add(c);
+    /* Checks if building to be placed is adjacent to a field, given the ring of
+       cells around it
+     */
+    public boolean adjacentField(BitSet ring) {
+        for (int p = ring.nextSetBit(0); p >= 0; p = ring.nextSetBit(p+1)) {
+            if (analysis.field[p]) {
+                return true;
             }
         }
-        return adjacent.size();
+        return false;
     }
 
     /* Checks if building to be placed will be connected to a road
        (either already on the board or a part of the roads cells passed in
        as an argument) or not
      */
-    public boolean hasRoadConnection(Building b, Cell buildingPosition, Land land,
-                                     Set<Cell> roadConstruction ) {
-        Set<Cell> absBuildingCells = getAbsCells(b, buildingPosition);
-        
-        for (Cell abs : absBuildingCells) {
-            Cell[] absNeighbors = abs.neighbors();
-            for (Cell n : absNeighbors) {
-                if (road_cells.contains(n))
+    public boolean hasRoadConnection(BitSet absBuildingCells, BitSet roadConstruction) {
+        for (int abs = absBuildingCells.nextSetBit(0); abs >= 0;
+             abs = absBuildingCells.nextSetBit(abs+1)) {
+            for (int d = 0; d < 4; d++) {
+                int n = grid.neighbors[4*abs + d];
+                if (road_cells.get(n))
                     return true;
-                if (roadConstruction.contains(n))
+                if (roadConstruction.get(n))
                     return true;
             }
-            if (onPerimeter(land, abs))
+            if (grid.perimeter[abs])
                 return true;
         }
         return false;
     }
 
-    /* Given building and a position, returns absolute positions of building cells 
-       on the Land
-     */
-    private Set<Cell> getAbsCells(Building b, Cell buildingPos) {
-        Set<Cell> absBuildingCells = new HashSet<Cell>();
-        for (Cell c : b) {
-            Cell abs = new Cell(c.i + buildingPos.i, c.j + buildingPos.j);
-            absBuildingCells.add(abs);
-        }
-        return absBuildingCells;
-    }
-
-    /* Takes a candidate park or pond and scores it considering the move that
-       it will be added to. 
-       type needs to be Cell.Type.WATER or Cell.Type.PARK
-       The score is equal to the number of empty cells around the park/pond,
-       to encourage placement of ponds and parks with more potential neighbors.
-       A penalty is assessed for each adjacent road cell, to discourage placement
-       along roads
-     */
-    private int scoreParkOrPond(Move move, Land land,
-                                Set<Cell> candidate, Cell.Type type) {
-        Building request = move.request;
-        Building b = request.rotations()[move.rotation];
-        Cell buildingPos = move.location;
-        Set<Cell> absBuildingCells = getAbsCells(b, buildingPos);
-        Set<Cell> road = move.road;
-        Set<Cell> water = move.water;
-        Set<Cell> park = move.park;
-        Set<Cell> markedForConstruction = new HashSet<Cell>();
-        Set<Cell> cellsToScore = new HashSet<Cell>();
-        markedForConstruction.addAll(absBuildingCells);
-        if (type == Cell.Type.PARK) {
-            markedForConstruction.addAll(water);
-            cellsToScore = park;
-        }
-        else {
-            markedForConstruction.addAll(park);
-            cellsToScore = water;
-        }
-
-        Set<Cell> emptyNeighbors = new HashSet<Cell>();
-        Set<Cell> roadNeighbors = new HashSet<Cell>();
-        for (Cell c : cellsToScore) {
-            Cell[] cNeighbors = c.neighbors();
-            for (Cell n : cNeighbors) {
-                if (land.unoccupied(n) && !markedForConstruction.contains(n)) {
-                    emptyNeighbors.add(n);
-                }
-                if (land.getCellType(n) == Cell.Type.ROAD || road.contains(n)) {
-                    roadNeighbors.add(n);
-                }
-            }
-        }
-
-        // base score for number of empty cells around the pond/park
-        int score = emptyNeighbors.size() * PARKPOND_PACKING_BONUS;
-
-        // penalty for any adjacent road cells
-        score -= roadNeighbors.size() * ROAD_ADJ_POND_PENALTY;
-        return score;
-    }
-
-    /* returns a set of possible horizontal and vertical parks/ponds (size 4)
-       given a move. For the given type, the move MUST NOT have any cells of that type
-       under construction
-     */
-    private Set<Set<Cell>> getHorizVertPermuts(Move move, Land land, Cell.Type type) {
-        if (type != Cell.Type.PARK && type != Cell.Type.WATER) {
-            return new HashSet<Set<Cell>>();
-        }
-        Set<Set<Cell>> candidates = new HashSet<Set<Cell>>();
-        Building request = move.request;
-        Building b = request.rotations()[move.rotation];
-        Cell buildingPos = move.location;
-        Set<Cell> absBuildingCells = getAbsCells(b, buildingPos);
-        Set<Cell> road = move.road;
-        Set<Cell> park = move.park;
-        Set<Cell> water = move.water;
-        Set<Cell> markedForConstruction = new HashSet<Cell>();
-        markedForConstruction.addAll(road);
-        markedForConstruction.addAll(absBuildingCells);
-        if (type == Cell.Type.PARK) {
-            markedForConstruction.addAll(water);
-        }
-        else {
-            markedForConstruction.addAll(park);
-        }
-
-        // get empty neighbors to building
-        Set<Cell> neighbors = new HashSet<Cell>();
-        for (Cell c : absBuildingCells) {
-            Cell[] cNeighbors = c.neighbors();
-            for (Cell n : cNeighbors) {
-                if (land.unoccupied(n) && !markedForConstruction.contains(n)) {
-                    neighbors.add(n);
-                }
+    /* Returns the best new park or pond next to the building of a move, or an empty
+       set if none fits. Candidates are every placement of every park/pond pattern
+       from the tables (all fixed tetrominoes) covering an empty cell around the
+       building. They are tested and scored by masked compares against the window
+       of the overlay around that cell; the move must be applied to the overlay.
+       The score of a candidate is the number of empty cells around it, to encourage
+       placement of ponds and parks with more potential neighbors; a penalty is
+       assessed for each adjacent road cell, to discourage placement along roads.
+       Ties go to the candidate found last.
+     */
+    private BitSet bestParkPond(Candidate move) {
+        int words = ShapeTables.WINDOW_WORDS;
+        long[] occupied = new long[words];
+        long[] road = new long[words];
+        int bestScore = Integer.MIN_VALUE;
+        int bestPattern = -1;
+        int bestCell = 0;
+        int bestK = 0;
+
+        BitSet neighbors = move.ring;
+        for (int c = neighbors.nextSetBit(0); c >= 0; c = neighbors.nextSetBit(c+1)) {
+            if (!overlay.isEmpty(c)) {
+                continue;
             }
-        }
-
-        // for each empty neighbor, try to build horizontal and vertical park/pond
-        // with length of 4
-        for (Cell c : neighbors) {
-            // search all 4 directions
-            for (int dir = 0; dir < 4; dir++) {
-                Set<Cell> candidate = new HashSet<Cell>();
-                int length = 4;
-                int i = c.i;
-                int j = c.j;
-                while (length > 0) {
-                    if (!land.unoccupied(i, j)) {
-                        // if can't reach length of 4, stop and try to build next candidate
-                        break;
-                    }
-                    Cell curr = new Cell(i, j);
-                    if (markedForConstruction.contains(curr)) {
-                        // check if the cell is already under construction
-                        break;
+            overlay.window(c, occupied, road);
+            for (int p = 0; p < tables.patterns.length; p++) {
+                long[] cells = tables.patternWindows[p];
+                long[] ring = tables.ringWindows[p];
+
+                // each placement of the pattern that has its cell k on c
+                for (int k = 0, w = 0; w < cells.length; k++, w += words) {
+                    long taken = 0;
+                    for (int x = 0; x < words; x++) {
+                        taken |= occupied[x] & cells[w + x];
                     }
-                    candidate.add(curr);
-                    length--;
-                    // grow next cell in a straight line
-                    if (dir == 0) {
-                        i--; // north
-                    } else if (dir == 1) {
-                        j++; // east
-                    } else if (dir == 2) {
-                        i++; // south
-                    } else {
-                        j--; // west
+                    if (taken != 0) {
+                        continue; // off the board, cell taken or already under construction
                     }
-                } // end while length > 0
 
-                if (candidate.size() == 4) {
-                    // only consider candidates of full length of 4
-                    candidates.add(candidate);
+                    int emptyNeighbors = 0;
+                    int roadNeighbors = 0;
+                    for (int x = 0; x < words; x++) {
+                        emptyNeighbors += Long.bitCount(~occupied[x] & ring[w + x]);
+                        roadNeighbors += Long.bitCount(road[x] & ring[w + x]);
+                    }
+                    int score = emptyNeighbors * PARKPOND_PACKING_BONUS;
+                    score -= roadNeighbors * ROAD_ADJ_POND_PENALTY;
+                    if (score >= bestScore) {
+                        bestScore = score;
+                        bestPattern = p;
+                        bestCell = c;
+                        bestK = k;
+                    }
                 }
-            } // end for each direction
+            } // end for each pattern
         } // end for each neighbor cell
 
-        return candidates;
+        BitSet best = new BitSet();
+        if (bestPattern != -1) {
+            int[][] pattern = tables.patterns[bestPattern];
+            int i = grid.row[bestCell] - pattern[0][bestK];
+            int j = grid.col[bestCell] - pattern[1][bestK];
+            for (int k = 0; k < pattern[0].length; k++) {
+                best.set(grid.index(i + pattern[0][k], j + pattern[1][k]));
+            }
+        }
+        return best;
     }
 
     /* build parks and ponds to a move that currently has none to be built
      */
-    private Move buildParksPonds(Move move, Land land) {
-        Building request = move.request;
-        Building b = request.rotations()[move.rotation];
-        Cell buildingPos = move.location;
-        Set<Cell> absBuildingCells = getAbsCells(b, buildingPos);
-        Set<Cell> road = move.road;
-        Set<Cell> markedForConstruction = new HashSet<Cell>();
-        markedForConstruction.addAll(road);
+    private Candidate buildParksPonds(Candidate move) {
+        BitSet absBuildingCells = move.building;
 
         // double check: make sure move doesnt have any water or park to be built
-        Set<Cell> park = new HashSet<Cell>();
-        Set<Cell> water = new HashSet<Cell>();
+        BitSet park = new BitSet();
+        BitSet water = new BitSet();
         move.park = park;
         move.water = water;
-        
+        int mark = overlay.mark();
+        applyMove(move);
+
         boolean hasField = false;
         boolean hasPond = false;
-        hasField = adjacentField(b, buildingPos, land, new HashSet<Cell>());
-        hasPond = adjacentPond(b, buildingPos, land, new HashSet<Cell>());
+        hasField = adjacentField(move.ring);
+        hasPond = adjacentPond(move.ring);
 
         // if building is not placed next to a field, try to connect to one or build one
         if (!hasField) {
-            Set<Cell> connectPark = connectTo(b, buildingPos, land,
-                                              markedForConstruction, Cell.Type.PARK, 3);
-            if (connectPark.size() > 0) {
+            BitSet connectPark = connectTo(absBuildingCells, Cell.Type.PARK, 3);
+            if (connectPark.cardinality() > 0) {
                 // can connect to an existing park
-                park.addAll(connectPark);
+                park.or(connectPark);
             }
             else {
-                // can't connect, generate a new park - start with all possible candidates
-                Set<Set<Cell>> candidateParks = getHorizVertPermuts(move, land, Cell.Type.PARK);
-
-                // score the candidates
-                Iterator<Set<Cell>> candParks_it = candidateParks.iterator();
-                Vector<ScoredParkPond> scoredParks = new Vector<ScoredParkPond>();
-                while (candParks_it.hasNext()) {
-                    Set<Cell> candidate = candParks_it.next();
-                    int score = scoreParkOrPond(move, land,
-                                                candidate, Cell.Type.PARK);
-                    scoredParks.add(new ScoredParkPond(candidate, score));
-                }
-
-                // sort the scored parks and get the highest scored one
-                if (scoredParks.size() == 0) {
-                    park = new HashSet<Cell>();
-                }
-                else {
-                    Collections.sort(scoredParks);
-                    ScoredParkPond bestScoredPark = scoredParks.lastElement();
-                    park = bestScoredPark.parkPond;
-                }
+                // can't connect, generate a new park
+                park = bestParkPond(move);
             } // end else build a new field
         } // end if !hasField
 
-        // add newly built (or none) park cells to be marked under construction
-        markedForConstruction.addAll(park);
+        // add newly built (or none) park cells to the overlay
+        overlay.apply(park, Cell.Type.PARK);
 
         // update the move with park cells
         move.park = park;
-        
+
         // if not placed next to a pond, try to connect to one or build one
         if (!hasPond) {
-            Set<Cell> connectWater = connectTo(b, buildingPos, land,
-                                               markedForConstruction, Cell.Type.WATER, 3);
-            if (connectWater.size() > 0) {
+            BitSet connectWater = connectTo(absBuildingCells, Cell.Type.WATER, 3);
+            if (connectWater.cardinality() > 0) {
                 // can connect to an existing pond
-                water.addAll(connectWater);
+                water.or(connectWater);
             }
             else {
-                // can't connect, generate a new pond - start with all possible candidates
-                Set<Set<Cell>> candidatePonds = getHorizVertPermuts(move, land, Cell.Type.WATER);
-
-                // score the candidates
-                Iterator<Set<Cell>> candPonds_it = candidatePonds.iterator();
-                Vector<ScoredParkPond> scoredPonds = new Vector<ScoredParkPond>();
-                while (candPonds_it.hasNext()) {
-                    Set<Cell> candidate = candPonds_it.next();
-                    int score = scoreParkOrPond(move, land, candidate, Cell.Type.WATER);
-                    scoredPonds.add(new ScoredParkPond(candidate, score));
-                }
-
-                // sort the scored ponds and get the highest scored one
-                if (scoredPonds.size() == 0) {
-                    water = new HashSet<Cell>();
-                }
-                else {
-                    Collections.sort(scoredPonds);
-                    ScoredParkPond bestScoredPond = scoredPonds.lastElement();
-                    water = bestScoredPond.parkPond;
-                }
+                // can't connect, generate a new pond
+                water = bestParkPond(move);
             } // end else build a new pond
         } // end if !hasPond
 
         // update move with water cells
         move.water = water;
+        overlay.undo(mark);
         return move;
     }
-    
+
     /* For a given set of cells, counts how many are on the perimeter
      */
-    private int countPerimeterCells(Land land, Set<Cell> cells) {
+    private int countPerimeterCells(BitSet cells) {
         int count = 0;
-        for (Cell c : cells) {
-            if (onPerimeter(land, c)) {
+        for (int c = cells.nextSetBit(0); c >= 0; c = cells.nextSetBit(c+1)) {
+            if (grid.perimeter[c]) {
                 count++;
             }
         }
         return count;
     }
-    
-    /* Returns if a cell is on perimeter or not
-     */
-    private boolean onPerimeter(Land land, Cell cell) {
-        int i = cell.i;
-        int j = cell.j;
-        return (i <= 0 || j <= 0 || i >= land.side-1 || j >= land.side-1);
-    }
 
-    /* Returns if a group of cells has a road connection. 
-       This happens if any neighbors of the group are road cells (either existing or 
-       under construction), or if any of the cells in the group is a perimeter cell
+    /* Returns if an empty cell gives its group a road connection: it is a perimeter
+       cell, or a neighbor is a road cell (either existing or under construction)
      */
-    private boolean isConnectedToRoad(Set<Cell> group, Land land,
-                                      Set<Cell> roadMarkedForConstruction) {
-        Set<Cell> neighbors = new HashSet<Cell>();
-
-        for (Cell c : group) {
-            Cell[] cNeighbors = c.neighbors();
-            for (Cell n : cNeighbors) {
-                neighbors.add(n);
-            }
-            if (onPerimeter(land, c)) {
-                return true;
-            }
+    private boolean isRoadContact(int c) {
+        if (grid.perimeter[c]) {
+            return true;
         }
-
-        for (Cell c : neighbors) {
-            if (land.getCellType(c.i, c.j) == Cell.Type.ROAD ||
-                roadMarkedForConstruction.contains(c)) {
+        for (int d = 0; d < 4; d++) {
+            int n = grid.neighbors[4*c + d];
+            if (overlay.types[n] == Cell.Type.ROAD) {
                 return true;
             }
         }
-        
         return false;
     }
-    
-    /* Returns set of empty cells that are connected to this empty cell using DFS
-     */
-    private Set<Cell> getConnectedEmptyCells(Cell c, Land land,
-                                             Set<Cell> markedForConstruction) {
-        Set<Cell> emptyCellGroup = new HashSet<Cell>();
-        Set<Cell> visited = new HashSet<Cell>();
-        Stack<Cell> stack = new Stack<Cell>();
-        stack.push(c);
-        visited.add(c);
-
-        while (!stack.empty()) {
-            Cell curr = stack.pop();
-            emptyCellGroup.add(curr);
-            visited.add(curr);
-            Cell[] neighbors = curr.neighbors();
-            for (Cell n : neighbors) {
-                if (visited.contains(n)) {
+
+    /* Searches the group of empty cells connected to this empty cell using DFS,
+       stopping as soon as the group is known to have a road connection. Neighbors
+       closer to the road network are explored first, so connected groups usually
+       finish after a few steps. Returns the group size if the group has no road
+       connection, or -1 if it does. Cells of connected groups are added to
+       connected, cells of unconnected groups to cutOff.
+     */
+    private int searchEmptyGroup(int c, BitSet connected, BitSet cutOff, int[] stack) {
+        BitSet visited = new BitSet();
+        int[] next = new int[4];
+        int top = 0;
+        stack[top++] = c;
+        visited.set(c);
+
+        while (top > 0) {
+            int curr = stack[--top];
+            if (connected.get(curr) || isRoadContact(curr)) {
+                connected.or(visited);
+                return -1;
+            }
+
+            int numNext = 0;
+            for (int d = 0; d < 4; d++) {
+                int n = grid.neighbors[4*curr + d];
+                if (visited.get(n)) {
                     continue;
                 }
 
-                if (land.unoccupied(n) && !markedForConstruction.contains(n)) {
-                    stack.push(n);
+                if (overlay.isEmpty(n)) {
+                    visited.set(n);
+                    // keep next sorted by distance to the road network, closest last
+                    int k = numNext++;
+                    while (k > 0 && analysis.roadDist[next[k-1]] < analysis.roadDist[n]) {
+                        next[k] = next[k-1];
+                        k--;
+                    }
+                    next[k] = n;
                 }
             }
-        } // end while !stack.empty()
-        return emptyCellGroup;
+
+            // push the neighbor closest to the road network last so it is popped first
+            for (int k = 0; k < numNext; k++) {
+                stack[top++] = next[k];
+            }
+        } // end while top > 0
+
+        cutOff.or(visited);
+        return visited.cardinality();
     }
-    
+
     /* Counts how many cells are cut off from road connection as a result of
-       given move
-     */
-    private int countCellsCutOff(Move move, Land land) {
-        Building request = move.request;
-        Building b = request.rotations()[move.rotation];
-        Cell buildingPos = move.location;
-        Set<Cell> absBuildingCells = getAbsCells(b, buildingPos);
-        Set<Cell> road = move.road;
-        Set<Cell> water = move.water;
-        Set<Cell> park = move.park;
-        Set<Cell> markedForConstruction = new HashSet<Cell>();
-        markedForConstruction.addAll(absBuildingCells);
-        markedForConstruction.addAll(road);
-        markedForConstruction.addAll(water);
-        markedForConstruction.addAll(park);
-        Set<Cell> neighbors = new HashSet<Cell>();
-
-        for (Cell c : markedForConstruction) {
-            Cell[] cNeighbors = c.neighbors();
-            for (Cell n : cNeighbors) {
-                if (!markedForConstruction.contains(n)) {
-                    neighbors.add(n);
+       the move applied to the overlay since the mark
+     */
+    private int countCellsCutOff(int mark) {
+        // for each empty neighbor of the move, check whether its group of empty cells
+        // still has a road connection, summing up the cells of the groups that do not
+        BitSet connected = new BitSet();
+        BitSet cutOff = new BitSet();
+        int[] stack = new int[grid.size];
+        int unconnectedCount = 0;
+        for (int k = mark; k < overlay.mark(); k++) {
+            int applied = overlay.applied(k);
+            for (int d = 0; d < 4; d++) {
+                int c = grid.neighbors[4*applied + d];
+                if (overlay.isEmpty(c) && !cutOff.get(c)) {
+                    int groupSize = searchEmptyGroup(c, connected, cutOff, stack);
+                    if (groupSize > 0) {
+                        unconnectedCount += groupSize;
+                    }
                 }
             }
         }
 
-        // for each empty neighbor, get the group of empty cells connected to it
-        Set<Set<Cell>> emptyCellGroups = new HashSet<Set<Cell>>();
-        Set<Set<Cell>> unconnectedGroups = new HashSet<Set<Cell>>();
-        for (Cell c : neighbors) {
-            if (land.unoccupied(c) && !markedForConstruction.contains(c)) {
-                Set<Cell> group = getConnectedEmptyCells(c, land, markedForConstruction);
-                emptyCellGroups.add(group);
+        return unconnectedCount;
+    }
+
+    /* Returns the size of the largest group of connected empty cells that still has
+       a road connection once the move is built
+     */
+    private int largestBuildableArea(Candidate move) {
+        int mark = overlay.mark();
+        applyMove(move);
+
+        BitSet visited = new BitSet();
+        int[] stack = new int[grid.size];
+        int largest = 0;
+        for (int idx = 0; idx < grid.size; idx++) {
+            if (!overlay.isEmpty(idx) || visited.get(idx)) {
+                continue;
             }
-        }
 
-        // for each empty cell group, check if it's connected
-        Iterator<Set<Cell>> group_it = emptyCellGroups.iterator();
-        while (group_it.hasNext()) {
-            Set<Cell> group = group_it.next();
-            if (!isConnectedToRoad(group, land, road)) {
-                unconnectedGroups.add(group);
+            int size = 0;
+            boolean connected = false;
+            int top = 0;
+            visited.set(idx);
+            stack[top++] = idx;
+            while (top > 0) {
+                int curr = stack[--top];
+                size++;
+                connected |= isRoadContact(curr);
+                for (int d = 0; d < 4; d++) {
+                    int n = grid.neighbors[4*curr + d];
+                    if (overlay.isEmpty(n) && !visited.get(n)) {
+                        visited.set(n);
+                        stack[top++] = n;
+                    }
+                }
+            }
+            if (connected) {
+                largest = Math.max(largest, size);
             }
         }
 
-        // for each unconnected empty cell group, sum up the cells
-        group_it = unconnectedGroups.iterator();
-        int unconnectedCount = 0;
-        while (group_it.hasNext()) {
-            Set<Cell> group = group_it.next();
-            unconnectedCount += group.size();
-        }
-        
-        return unconnectedCount;
+        overlay.undo(mark);
+        return largest;
     }
 
     /* For a set of road cells, count how many adjacent cells are water or park cells (either
-       existing or about to be placed)
+       existing or about to be placed, as applied to the overlay)
      */
-    int countRoadAdjParkPond(Set<Cell> road, Land land, Set<Cell> water, Set<Cell> park) {
-        Set<Cell> roadCellsAdj = new HashSet<Cell>();
-        Set<Cell> neighbors = new HashSet<Cell>();
-
-        for (Cell r : road) {
-            Cell[] rNeighbors = r.neighbors();
-            for (Cell n : rNeighbors) {
-                neighbors.add(n);
+    int countRoadAdjParkPond(BitSet road) {
+        int roadCellsAdj = 0;
+        BitSet neighbors = getNeighbors(road);
+        for (int n = neighbors.nextSetBit(0); n >= 0; n = neighbors.nextSetBit(n+1)) {
+            if (overlay.types[n] == Cell.Type.WATER || overlay.types[n] == Cell.Type.PARK) {
+                roadCellsAdj++;
             }
         }
-
-        for (Cell n : neighbors) {
-            if (land.getCellType(n) == Cell.Type.WATER ||
-                land.getCellType(n) == Cell.Type.PARK ||
-                water.contains(n) || park.contains(n)) {
-                roadCellsAdj.add(n);
-            }
-        }
-
-        return roadCellsAdj.size();
+        return roadCellsAdj;
     }
-    
-    /* Searches for a park or pond cell using BFS that can be reached by a path of empty 
-       cells up to a maximum specified distance. Returns set of cells that satisfies 
-       this, or an empty set if none found. 
+
+    /* Searches for a park or pond cell using BFS that can be reached by a path of empty
+       cells up to a maximum specified distance. Returns set of cells that satisfies
+       this, or an empty set if none found.
        Used for connecting buildings to existing parks/ponds.
+       Each queue entry records the entry it was reached from, so the path can be
+       traced back once a park/pond is found.
+       The move must be applied to the overlay, so its cells are not part of any path.
     */
-    private Set<Cell> connectTo(Building b, Cell buildingPos, Land land,
-                                Set<Cell> markedForConstruction, Cell.Type type,
-                                int maxDistance) {
+    private BitSet connectTo(BitSet absBuildingCells, Cell.Type type, int maxDistance) {
         // only works for parks and ponds
         if (type != Cell.Type.WATER && type != Cell.Type.PARK) {
-            return new HashSet<Cell>();
-        }
- 
-        Set<Cell> absBuildingCells = getAbsCells(b, buildingPos);
-        Queue<Cell> queue = new LinkedList<Cell>();
-         
-        for (Cell c : absBuildingCells) {
-            Cell[] neighbors = c.neighbors();
-            for (Cell n : neighbors) {
-                if (land.unoccupied(n) && !markedForConstruction.contains(n)) {
-                    queue.add(n);
+            return new BitSet();
+        }
+
+        int[] entryCell = new int[64];
+        int[] entryPrevious = new int[64];
+        int head = 0;
+        int tail = 0;
+
+        for (int c = absBuildingCells.nextSetBit(0); c >= 0;
+             c = absBuildingCells.nextSetBit(c+1)) {
+            for (int d = 0; d < 4; d++) {
+                int n = grid.neighbors[4*c + d];
+                if (overlay.isEmpty(n)) {
+                    if (tail == entryCell.length) {
+                        entryCell = Arrays.copyOf(entryCell, 2 * tail);
+                        entryPrevious = Arrays.copyOf(entryPrevious, 2 * tail);
+                    }
+                    entryCell[tail] = n;
+                    entryPrevious[tail] = -1;
+                    tail++;
                 }
             }
         }
- 
+
         int distance = maxDistance;
-        int currIterSize = queue.size(); // keep track of how many cells in current search depth
-        Set<Cell> connectingCells = new HashSet<Cell>();
-        Set<Cell> visited = new HashSet<Cell>();
- 
-        while (queue.size() > 0) {
+        int currIterSize = tail - head; // keep track of how many cells in current search depth
+        BitSet connectingCells = new BitSet();
+        BitSet visited = new BitSet();
+
+        while (tail - head > 0) {
             if (currIterSize == 0) {
                 // if done with current search depth, get size of next search depth and increase
                 // search depth counter
-                currIterSize = queue.size();
+                currIterSize = tail - head;
                 distance--;
                 if (distance <= 0) {
                     break;
                 }
             }
- 
-            Cell curr = queue.remove();
-            visited.add(curr);
-            Cell[] neighbors = curr.neighbors();
-            Cell found = null;
-            for (Cell c : neighbors) {
-                if (type == Cell.Type.WATER && land.isPond(c)) {
-                    found = curr;
+
+            int currEntry = head++;
+            int curr = entryCell[currEntry];
+            visited.set(curr);
+            int found = -1;
+            for (int d = 0; d < 4; d++) {
+                int c = grid.neighbors[4*curr + d];
+                if (type == Cell.Type.WATER && analysis.pond[c]) {
+                    found = currEntry;
                     break;
                 }
- 
-                if (type == Cell.Type.PARK && land.isField(c)) {
-                    found = curr;
+
+                if (type == Cell.Type.PARK && analysis.field[c]) {
+                    found = currEntry;
                     break;
                 }
- 
-                if ( land.unoccupied(c) && !absBuildingCells.contains(c)
-                     && !markedForConstruction.contains(c) && !visited.contains(c) ) {
-                    // add this neighbor cell to the queue, with its previous pointer pointing to curr
-                    Cell next = new Cell(c.i, c.j, curr);
-                    queue.add(next);
+
+                if (overlay.isEmpty(c) && !visited.get(c)) {
+                    // add this neighbor cell to the queue, with its previous entry pointing to curr
+                    if (tail == entryCell.length) {
+                        entryCell = Arrays.copyOf(entryCell, 2 * tail);
+                        entryPrevious = Arrays.copyOf(entryPrevious, 2 * tail);
+                    }
+                    entryCell[tail] = c;
+                    entryPrevious[tail] = currEntry;
+                    tail++;
                 }
             }
- 
-            if (found != null) {
-                // trace the previous pointer back to find the path
-                while (found != null) {
-                    connectingCells.add(found);
-                    found = found.previous;
+
+            if (found != -1) {
+                // trace the previous entries back to find the path
+                while (found != -1) {
+                    connectingCells.set(entryCell[found]);
+                    found = entryPrevious[found];
                 }
                 break;
             }
-            
+
             currIterSize--;
-        } // end while queue.size() > 0
-        
+        } // end while queue not empty
+
         return connectingCells;
     } // end connectTo()
-    
-} // end Player
-
 
+} // end Player
@@ -0,0 +1,322 @@
+package pentos.g9;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/* Precomputed shape and pattern tables, independent of the board side:
+   - every building rotation we expect (all fixed pentominoes for residences, all
+     rectangles up to 5x5 for factories) with the ring of cells around it
+   - the park/pond patterns tried next to a residence: every fixed tetromino (I, O,
+     T, S, Z, L and J in all orientations), as relative cells and, for each of its
+     placements over a given cell, as masks of its cells and of the ring around it
+     within the window of cells around that cell
+   The tables are generated offline by TableGenerator into the resource file
+   tables.bin and loaded once per JVM with a single bulk read. If the resource is
+   missing or unreadable they are generated in-process instead.
+
+   File format (big-endian):
+     int MAGIC, int VERSION
+     int #shapes, then per shape: byte #cells, #cells x (byte di, byte dj),
+                                  byte #ring,  #ring x (byte di, byte dj)
+     int #patterns, then per pattern: byte #cells, #cells x (byte di, byte dj)
+ */
+final class ShapeTables {
+
+    public static final String RESOURCE = "tables.bin";
+    public static final int MAGIC = 0x47395442; // "G9TB"
+    public static final int VERSION = 2;
+    public static final int WINDOW_RADIUS = 4; // pattern and ring cells are at most this far from
+                                               // a pattern cell, per axis
+    public static final int WINDOW_SIDE = 2 * WINDOW_RADIUS + 1;
+    public static final int WINDOW_ROWS_PER_WORD = 64 / WINDOW_SIDE;
+    public static final int WINDOW_WORDS = (WINDOW_SIDE + WINDOW_ROWS_PER_WORD - 1) / WINDOW_ROWS_PER_WORD;
+
+    private static ShapeTables loaded; // tables shared by every player in this JVM
+
+    public final int[][][] shapes; // per shape: {di[], dj[]}
+    public final int[][][] rings; // per shape: {di[], dj[]} of the cells around it
+    public final int[][][] patterns; // per park/pond pattern: {di[], dj[]}
+    public final long[][] patternWindows; // per pattern: WINDOW_WORDS words per cell k, the mask of
+                                          // the placement with cell k on the center of a window
+    public final long[][] ringWindows; // per pattern: same for the ring around each placement
+    private final Map<String, Integer> shapeIndex; // shape key -> index into shapes
+
+    public ShapeTables(int[][][] shapes, int[][][] rings, int[][][] patterns) {
+        this.shapes = shapes;
+        this.rings = rings;
+        this.patterns = patterns;
+        this.shapeIndex = new HashMap<String, Integer>();
+        for (int s = 0; s < shapes.length; s++) {
+            shapeIndex.put(key(shapes[s][0], shapes[s][1]), s);
+        }
+
+        this.patternWindows = new long[patterns.length][];
+        this.ringWindows = new long[patterns.length][];
+        for (int p = 0; p < patterns.length; p++) {
+            int[] di = patterns[p][0];
+            int[] dj = patterns[p][1];
+            int[][] ring = computeRing(di, dj);
+            patternWindows[p] = new long[di.length * WINDOW_WORDS];
+            ringWindows[p] = new long[di.length * WINDOW_WORDS];
+            for (int k = 0; k < di.length; k++) {
+                for (int m = 0; m < di.length; m++) {
+                    setWindowBit(patternWindows[p], k * WINDOW_WORDS, di[m] - di[k], dj[m] - dj[k]);
+                }
+                for (int m = 0; m < ring[0].length; m++) {
+                    setWindowBit(ringWindows[p], k * WINDOW_WORDS, ring[0][m] - di[k],
+                                 ring[1][m] - dj[k]);
+                }
+            }
+        }
+    }
+
+    /* Sets the bit of the cell (di, dj) away from the center in the window mask
+       starting at the given word. Rows of the window are packed WINDOW_ROWS_PER_WORD
+       to a word, WINDOW_SIDE bits per row.
+     */
+    public static void setWindowBit(long[] mask, int start, int di, int dj) {
+        int r = di + WINDOW_RADIUS;
+        int b = dj + WINDOW_RADIUS;
+        mask[start + r / WINDOW_ROWS_PER_WORD] |=
+            1L << ((r % WINDOW_ROWS_PER_WORD) * WINDOW_SIDE + b);
+    }
+
+    /* Returns the tables, reading them from the resource on first use
+     */
+    public static synchronized ShapeTables load() {
+        if (loaded == null) {
+            try (InputStream in = ShapeTables.class.getResourceAsStream(RESOURCE)) {
+                if (in != null) {
+                    loaded = read(in.readAllBytes());
+                }
+            } catch (IOException | RuntimeException e) {
+                loaded = null; // corrupt resource, fall back to generating
+            }
+            if (loaded == null) {
+                loaded = generate();
+            }
+        }
+        return loaded;
+    }
+
+    /* Returns a key identifying a shape given as cell offsets, independent of the
+       order of its cells
+     */
+    public static String key(int[] di, int[] dj) {
+        int[] codes = new int[di.length];
+        for (int k = 0; k < di.length; k++) {
+            codes[k] = ((di[k] + 128) << 8) | (dj[k] + 128);
+        }
+        Arrays.sort(codes);
+        return Arrays.toString(codes);
+    }
+
+    /* Returns the ring {di[], dj[]} of the shape with the given key, or null if the
+       shape is not in the tables
+     */
+    public int[][] ring(String key) {
+        Integer s = shapeIndex.get(key);
+        return (s == null) ? null : rings[s];
+    }
+
+    /* Returns the cells around a shape in (di, dj) order: every neighbor of one
+       of its cells that is not part of the shape itself
+     */
+    public static int[][] computeRing(int[] di, int[] dj) {
+        int[] ndi = {-1, 0, 1, 0};
+        int[] ndj = {0, 1, 0, -1};
+        Set<String> cells = new HashSet<String>();
+        for (int k = 0; k < di.length; k++) {
+            cells.add(di[k] + "," + dj[k]);
+        }
+
+        TreeSet<Integer> ring = new TreeSet<Integer>();
+        for (int k = 0; k < di.length; k++) {
+            for (int d = 0; d < 4; d++) {
+                int ri = di[k] + ndi[d];
+                int rj = dj[k] + ndj[d];
+                if (!cells.contains(ri + "," + rj)) {
+                    ring.add(((ri + 128) << 8) | (rj + 128));
+                }
+            }
+        }
+
+        int[][] output = new int[2][ring.size()];
+        int k = 0;
+        for (int code : ring) {
+            output[0][k] = (code >> 8) - 128;
+            output[1][k] = (code & 0xff) - 128;
+            k++;
+        }
+        return output;
+    }
+
+    /* Builds the tables from scratch
+     */
+    public static ShapeTables generate() {
+        Vector<int[][]> shapes = new Vector<int[][]>();
+        Set<String> seen = new HashSet<String>();
+
+        // residences: every rotation and reflection of the 12 pentominoes
+        int[][][] pentominoes = {
+            {{0,0},{0,1},{0,2},{0,3},{0,4}}, // I
+            {{0,0},{1,0},{2,0},{3,0},{3,1}}, // L
+            {{0,1},{1,1},{2,1},{2,0},{3,0}}, // N
+            {{0,0},{0,1},{1,0},{1,1},{2,0}}, // P
+            {{0,0},{0,1},{0,2},{1,1},{2,1}}, // T
+            {{0,0},{1,0},{1,1},{1,2},{0,2}}, // U
+            {{0,0},{1,0},{2,0},{2,1},{2,2}}, // V
+            {{0,0},{1,0},{1,1},{2,1},{2,2}}, // W
+            {{0,1},{1,0},{1,1},{1,2},{2,1}}, // X
+            {{0,1},{1,0},{1,1},{2,1},{3,1}}, // Y
+            {{0,0},{0,1},{1,1},{2,1},{2,2}}, // Z
+            {{0,1},{0,2},{1,0},{1,1},{2,1}}  // F
+        };
+        for (int[][] p : pentominoes) {
+            for (int sym = 0; sym < 8; sym++) {
+                int[][] shape = normalize(transform(p, sym));
+                if (seen.add(key(shape[0], shape[1]))) {
+                    shapes.add(shape);
+                }
+            }
+        }
+
+        // factories: every rectangle up to 5x5
+        for (int h = 1; h <= 5; h++) {
+            for (int w = 1; w <= 5; w++) {
+                int[][] shape = new int[2][h * w];
+                for (int k = 0; k < h * w; k++) {
+                    shape[0][k] = k / w;
+                    shape[1][k] = k % w;
+                }
+                if (seen.add(key(shape[0], shape[1]))) {
+                    shapes.add(shape);
+                }
+            }
+        }
+
+        int[][][] shapeArray = shapes.toArray(new int[0][][]);
+        int[][][] rings = new int[shapeArray.length][][];
+        for (int s = 0; s < shapeArray.length; s++) {
+            rings[s] = computeRing(shapeArray[s][0], shapeArray[s][1]);
+        }
+
+        // parks/ponds: every rotation and reflection of the 5 tetrominoes
+        int[][][] tetrominoes = {
+            {{0,0},{0,1},{0,2},{0,3}}, // I
+            {{0,0},{0,1},{1,0},{1,1}}, // O
+            {{0,0},{0,1},{0,2},{1,1}}, // T
+            {{0,1},{0,2},{1,0},{1,1}}, // S, reflected Z
+            {{0,0},{1,0},{2,0},{2,1}}  // L, reflected J
+        };
+        Vector<int[][]> patterns = new Vector<int[][]>();
+        Set<String> seenPatterns = new HashSet<String>();
+        for (int[][] t : tetrominoes) {
+            for (int sym = 0; sym < 8; sym++) {
+                int[][] pattern = normalize(transform(t, sym));
+                if (seenPatterns.add(key(pattern[0], pattern[1]))) {
+                    patterns.add(pattern);
+                }
+            }
+        }
+
+        return new ShapeTables(shapeArray, rings, patterns.toArray(new int[0][][]));
+    }
+
+    /* Applies one of the 8 rotations/reflections to a list of (i, j) cells
+     */
+    private static int[][] transform(int[][] cells, int sym) {
+        int[][] output = new int[2][cells.length];
+        for (int k = 0; k < cells.length; k++) {
+            int i = cells[k][0];
+            int j = cells[k][1];
+            for (int r = 0; r < sym % 4; r++) {
+                int t = i;
+                i = j;
+                j = -t;
+            }
+            if (sym >= 4) {
+                j = -j;
+            }
+            output[0][k] = i;
+            output[1][k] = j;
+        }
+        return output;
+    }
+
+    /* Shifts a shape so its smallest row and column offsets are 0
+     */
+    private static int[][] normalize(int[][] shape) {
+        int minI = Integer.MAX_VALUE;
+        int minJ = Integer.MAX_VALUE;
+        for (int k = 0; k < shape[0].length; k++) {
+            minI = Math.min(minI, shape[0][k]);
+            minJ = Math.min(minJ, shape[1][k]);
+        }
+        for (int k = 0; k < shape[0].length; k++) {
+            shape[0][k] -= minI;
+            shape[1][k] -= minJ;
+        }
+        return shape;
+    }
+
+    /* Serializes the tables in the resource format
+     */
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(shapes.length);
+        for (int s = 0; s < shapes.length; s++) {
+            writeCells(out, shapes[s]);
+            writeCells(out, rings[s]);
+        }
+        out.writeInt(patterns.length);
+        for (int[][] p : patterns) {
+            writeCells(out, p);
+        }
+        out.flush();
+    }
+
+    private static void writeCells(DataOutputStream out, int[][] cells) throws IOException {
+        out.writeByte(cells[0].length);
+        for (int k = 0; k < cells[0].length; k++) {
+            out.writeByte(cells[0][k]);
+            out.writeByte(cells[1][k]);
+        }
+    }
+
+    /* Parses tables in the resource format
+     */
+    public static ShapeTables read(byte[] bytes) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException("not a g9 table file of version " + VERSION);
+        }
+        int numShapes = in.getInt();
+        int[][][] shapes = new int[numShapes][][];
+        int[][][] rings = new int[numShapes][][];
+        for (int s = 0; s < numShapes; s++) {
+            shapes[s] = readCells(in);
+            rings[s] = readCells(in);
+        }
+        int numPatterns = in.getInt();
+        int[][][] patterns = new int[numPatterns][][];
+        for (int p = 0; p < numPatterns; p++) {
+            patterns[p] = readCells(in);
+        }
+        return new ShapeTables(shapes, rings, patterns);
+    }
+
+    private static int[][] readCells(ByteBuffer in) {
+        int n = in.get() & 0xff;
+        int[][] cells = new int[2][n];
+        for (int k = 0; k < n; k++) {
+            cells[0][k] = in.get();
+            cells[1][k] = in.get();
+        }
+        return cells;
+    }
+
+} // end ShapeTables
@@ -0,0 +1,114 @@
+package pentos.g9;
+
+import pentos.sim.Cell;
+
+import java.util.*;
+
+/* Per column profiles of how far the board has been developed: residences grow
+   from the top down and factories from the bottom up. For each column we keep the
+   extent of rows that still have empty cells, and for the board the deepest row a
+   residence of ours has been anchored at. The free extents rule out whole columns
+   for a building in blockedColumns(). Cells are only ever built on, never cleared,
+   so after() updates the profiles incrementally from the cells of a move.
+ */
+final class Skyline {
+
+    public final BoardState state; // board the profiles describe
+    public final int[] firstFree; // per column: first empty row, side if the column is full
+    public final int[] lastFree; // per column: last empty row, -1 if the column is full
+    public final int residenceFront; // deepest anchor row of the residences we placed
+
+    private Skyline(BoardState state, int[] firstFree, int[] lastFree, int residenceFront) {
+        this.state = state;
+        this.firstFree = firstFree;
+        this.lastFree = lastFree;
+        this.residenceFront = residenceFront;
+    }
+
+    /* Computes the profiles of a whole board. The residence front can't be told
+       from the board, so it is passed in: 0 for a new game, otherwise the front
+       of the profiles being replaced.
+     */
+    public static Skyline of(BoardState state, int residenceFront) {
+        Grid grid = state.grid;
+        int side = grid.side;
+        int[] firstFree = new int[side];
+        int[] lastFree = new int[side];
+        Arrays.fill(firstFree, side);
+        Arrays.fill(lastFree, -1);
+
+        for (int i = 0; i < side; i++) {
+            for (int j = 0; j < side; j++) {
+                if (state.types[grid.index(i, j)] == Cell.Type.EMPTY) {
+                    firstFree[j] = Math.min(firstFree[j], i);
+                    lastFree[j] = i;
+                }
+            }
+        }
+        return new Skyline(state, firstFree, lastFree, residenceFront);
+    }
+
+    /* Returns the profiles of the next board, which only differs from this one
+       in the given built cells; anchorRow is the row the building of the move was
+       anchored at
+     */
+    public Skyline after(BoardState next, BitSet built, int anchorRow) {
+        Grid grid = next.grid;
+        int side = grid.side;
+        int[] newFirstFree = firstFree.clone();
+        int[] newLastFree = lastFree.clone();
+        int newResidenceFront = residenceFront;
+
+        for (int c = built.nextSetBit(0); c >= 0; c = built.nextSetBit(c+1)) {
+            int j = grid.col[c];
+            if (next.types[c] == Cell.Type.RESIDENCE) {
+                newResidenceFront = Math.min(Math.max(newResidenceFront, anchorRow), side-1);
+            }
+
+            // move the free extent of the column past cells that are no longer empty
+            while (newFirstFree[j] < side &&
+                   next.types[grid.index(newFirstFree[j], j)] != Cell.Type.EMPTY) {
+                newFirstFree[j]++;
+            }
+            while (newLastFree[j] >= 0 &&
+                   next.types[grid.index(newLastFree[j], j)] != Cell.Type.EMPTY) {
+                newLastFree[j]--;
+            }
+        }
+        return new Skyline(next, newFirstFree, newLastFree, newResidenceFront);
+    }
+
+    /* Returns the first row with an empty cell; all rows above it are fully built
+     */
+    public int firstFreeRow() {
+        int output = state.grid.side;
+        for (int f : firstFree) {
+            output = Math.min(output, f);
+        }
+        return output;
+    }
+
+    /* Returns the last row with an empty cell; all rows below it are fully built
+     */
+    public int lastFreeRow() {
+        int output = -1;
+        for (int f : lastFree) {
+            output = Math.max(output, f);
+        }
+        return output;
+    }
+
+    /* Fills in blockedBefore[c], for c from 0 to side, with the number of columns
+       before column c whose free extent doesn't reach into rows i0 to i1. A building
+       with its cells in those rows covers every column between its leftmost and
+       rightmost cell, so it can't be placed across a blocked column.
+     */
+    public void blockedColumns(int i0, int i1, int[] blockedBefore) {
+        blockedBefore[0] = 0;
+        for (int c = 0; c < firstFree.length; c++) {
+            boolean blocked = firstFree[c] > i1 || lastFree[c] < i0;
+            blockedBefore[c+1] = blockedBefore[c] + (blocked ? 1 : 0);
+        }
+    }
+
+} // end Skyline
@@ -0,0 +1,23 @@
+package pentos.g9;
+
+import java.io.*;
+
+/* Offline build step: generates the shape/pattern tables and writes them to the
+   resource loaded by ShapeTables, next to the class files of this package. Run it
+   from the package directory whenever the table contents or format change:
+
+     java pentos.g9.TableGenerator [output file, default tables.bin]
+ */
+public class TableGenerator {
+
+    public static void main(String[] args) throws IOException {
+        String path = (args.length > 0) ? args[0] : ShapeTables.RESOURCE;
+        ShapeTables tables = ShapeTables.generate();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path))) {
+            tables.write(out);
+        }
+        System.out.println("wrote " + tables.shapes.length + " shapes and "
+                           + tables.patterns.length + " patterns to " + path);
+    }
+
+} // end TableGenerator
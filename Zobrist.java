@@ -0,0 +1,68 @@
+package pentos.g9;
+
+import pentos.sim.Cell;
+
+import java.util.*;
+
+/* Zobrist keys for hashing the land: one random 64-bit key per cell index and
+   non-empty cell type, so the hash of a board is the XOR of the keys of its
+   occupied cells and can be updated incrementally as cells are built. Keys come
+   from a fixed seed, so hashes are stable across processes and can be stored in
+   the opening book.
+ */
+final class Zobrist {
+
+    private static final long SEED = 0x67396f70656e696eL;
+    private static final int TYPES = Cell.Type.values().length;
+
+    private static long[] keys; // TYPES per index, 0 for empty cells
+    private static int keysSize = -1;
+
+    /* Returns the keys for a grid of the given number of indices
+     */
+    public static synchronized long[] keys(int size) {
+        if (keysSize != size) {
+            SplittableRandom random = new SplittableRandom(SEED ^ size);
+            long[] k = new long[TYPES * size];
+            for (int idx = 0; idx < size; idx++) {
+                for (Cell.Type type : Cell.Type.values()) {
+                    if (type != Cell.Type.EMPTY) {
+                        k[TYPES * idx + type.ordinal()] = random.nextLong();
+                    }
+                }
+            }
+            keys = k;
+            keysSize = size;
+        }
+        return keys;
+    }
+
+    /* Returns the key of a cell of the given type, 0 for empty or off-board cells
+     */
+    public static long key(long[] keys, int idx, Cell.Type type) {
+        return (type == null) ? 0 : keys[TYPES * idx + type.ordinal()];
+    }
+
+    /* Hashes a whole board
+     */
+    public static long hash(Grid grid, Cell.Type[] types) {
+        long[] k = keys(grid.size);
+        long hash = 0;
+        for (int idx = 0; idx < grid.size; idx++) {
+            hash ^= key(k, idx, types[idx]);
+        }
+        return hash;
+    }
+
+    /* 64-bit FNV-1a hash of a string, used to key shapes in the opening book
+     */
+    public static long hashString(String s) {
+        long hash = 0xcbf29ce484222325L;
+        for (int k = 0; k < s.length(); k++) {
+            hash ^= s.charAt(k);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+} // end Zobrist